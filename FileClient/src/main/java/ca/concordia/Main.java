@@ -1,16 +1,26 @@
 package ca.concordia;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 // Press Shift twice to open the Search Everywhere dialog and type `show whitespaces`,
 // then press Enter. You can now see whitespace characters in your code.
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--pipeline")) {
+            runPipelined(args.length > 1 ? args[1] : null);
+            return;
+        }
+
         //Socket CLient
         System.out.println("Hello and welcome!");
         Scanner scanner = new Scanner(System.in);
@@ -49,4 +59,50 @@ public class Main {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    // Pipelined mode: every command (one per line, from a file or stdin) is written without
+    // waiting for replies, then the replies are read back in the same order. A separate
+    // thread does the sending so neither side stalls on a full socket buffer.
+    private static void runPipelined(String commandFile) {
+        try (BufferedReader input = new BufferedReader(commandFile == null
+                ? new InputStreamReader(System.in) : new FileReader(commandFile))) {
+            List<String> commands = new ArrayList<>();
+            String line;
+            while ((line = input.readLine()) != null) {
+                if (!line.isEmpty()) commands.add(line);
+            }
+
+            try (Socket clientSocket = new Socket("localhost", 12345);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))) {
+                OutputStream out = clientSocket.getOutputStream();
+                long start = System.nanoTime();
+                Thread sender = new Thread(() -> {
+                    try {
+                        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out), 64 * 1024);
+                        for (String command : commands) {
+                            writer.write(command);
+                            writer.write('\n');
+                        }
+                        writer.flush();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }, "pipeline-sender");
+                sender.start();
+
+                int received = 0;
+                for (String command : commands) {
+                    String response = reader.readLine();
+                    if (response == null) break;
+                    received++;
+                    System.out.println(command + " -> " + response);
+                }
+                sender.join();
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%d commands, %d responses in %.2f ms%n", commands.size(), received, elapsed / 1e6);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
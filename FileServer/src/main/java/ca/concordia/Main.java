@@ -1,14 +1,39 @@
 package ca.concordia;
 
-import java.io.IOException;
-
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.Layout;
+import ca.concordia.server.ExecutionMode;
 import ca.concordia.server.FileServer;
+import ca.concordia.server.ServerConfig;
 
 public class Main {
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws Exception {
+        // "migrate <old image> <new image>" copies an image into a new extent-layout one and exits.
+        if (args.length == 3 && args[0].equals("migrate")) {
+            FileSystemManager.migrate(args[1], args[2], Layout.EXTENT);
+            System.out.println("Migrated " + args[1] + " to " + args[2]);
+            return;
+        }
         System.out.println("Hello and welcome!");
 
-        FileServer server = new FileServer(12345, "filesystem.dat", 10 * 128);
+        // Execution mode: first argument or -Dfileserver.mode=virtual|platform (default virtual).
+        // -Dfileserver.poolSize requests run at once and -Dfileserver.queueCapacity more wait up to -Dfileserver.queueMillis,
+        // the rest are answered BUSY; -Dfileserver.maxConnections caps open connections,
+        // and -Dfileserver.engine=nio switches to the selector-based engine.
+        // -Dfileserver.storage=mapped memory-maps the image; -Dfileserver.force=on_write forces it after every change,
+        // -Dfileserver.force=journal also journals the metadata and shares each force between concurrent changes.
+        // -Dfileserver.durability=async|batched|sync overrides when a reply waits for the device; batched forces
+        // every -Dfileserver.batchMillis or -Dfileserver.batchOps changes. Clients can pick their own with DURABLE.
+        // -Dfileserver.cacheBytes caches that many bytes of blocks for READ (off by default; worth it when the files read most fit).
+        // A new image is -Dfileserver.imageSize bytes in -Dfileserver.blockSize blocks with -Dfileserver.maxFiles slots,
+        // plus the blocks its superblock needs, laid out as block chains or, with -Dfileserver.layout=extent, as runs
+        // of adjacent blocks.
+        ServerConfig config = ServerConfig.fromSystemProperties();
+        if (args.length > 0) {
+            config.setMode(ExecutionMode.parse(args[0]));
+        }
+
+        FileServer server = new FileServer(12345, "filesystem.dat", Long.getLong("fileserver.imageSize", 10 * 128), config);
         // Start the file server
         server.start();
     }
@@ -0,0 +1,121 @@
+package ca.concordia.filesystem;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Background thread behind {@link Durability#BATCHED}: runs the flush once the oldest change
+ * not yet flushed is the batch interval old, or as soon as the batch size of changes is
+ * waiting. A failed flush is retried one interval later with the changes it should have
+ * covered, and its error is handed once to {@link #check()}, which callers run before they
+ * apply their next change. {@link #close()} flushes one last time and throws if that fails.
+ */
+final class BatchFlusher {
+
+    interface Flush {
+        void run() throws IOException;
+    }
+
+    private final Flush flush;
+    private final Thread thread;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private volatile long intervalNanos;
+    private volatile int batchOps;
+    private int pending;   //changes since the last flush, guarded by lock
+    private long oldest;   //nanoTime of the first of them
+    private boolean closed;
+    private boolean retrying; //the last flush failed: the next waits out the interval however many are pending
+    private IOException failure; //of the last flush, until check() reports it
+
+    BatchFlusher(String name, Flush flush, int intervalMillis, int batchOps) {
+        this.flush = flush;
+        setWindow(intervalMillis, batchOps);
+        this.thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void setWindow(int intervalMillis, int batchOps) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.batchOps = batchOps;
+    }
+
+    /** Throws, once, the error of a flush that failed since the last call. */
+    void check() throws IOException {
+        lock.lock();
+        try {
+            IOException e = failure;
+            failure = null;
+            if (e != null) throw new IOException("Background flush failed", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Reports one acknowledged change that the next flush must cover. */
+    void changed() {
+        lock.lock();
+        try {
+            if (pending++ == 0) oldest = System.nanoTime();
+            if (pending == 1 || pending >= batchOps) changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stops the thread and flushes whatever it had not flushed yet. */
+    void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (pending > 0) flush.run(); //also covers the changes of a failed flush
+    }
+
+    private void run() {
+        lock.lock();
+        try {
+            while (!closed) {
+                if (pending == 0) {
+                    changed.awaitUninterruptibly();
+                    continue;
+                }
+                long wait = oldest + intervalNanos - System.nanoTime();
+                if ((pending < batchOps || retrying) && wait > 0) {
+                    changed.awaitNanos(wait);
+                    continue;
+                }
+                int flushing = pending;
+                pending = 0;
+                lock.unlock();
+                try {
+                    flush.run();
+                    lock.lock();
+                    retrying = false;
+                } catch (IOException e) {
+                    //Not flushed after all: they wait for the next one, an interval from now
+                    lock.lock();
+                    failure = e;
+                    retrying = true;
+                    oldest = System.nanoTime();
+                    pending += flushing;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ca.concordia.filesystem;
+
+/**
+ * Free-block map packed 64 blocks to a long (a set bit is a free block), with a running count
+ * of free blocks so "is there room?" never scans. Searches skip whole used words and find the
+ * free block inside a word with Long.numberOfTrailingZeros.
+ *
+ * {@link #allocate()} is next-fit: it resumes where the previous allocation stopped and wraps
+ * around, so one sweep over the image pays for all the allocations it serves instead of every
+ * allocation rescanning a full prefix, and consecutive allocations come out as runs of
+ * adjacent blocks; {@link #allocateRun(int)} hands such a run out in one call. Not thread-safe;
+ * the filesystem's write lock guards it.
+ */
+public final class BlockBitmap {
+
+    private final long[] words;
+    private final int size;
+    private int freeCount;
+    private int cursor; // next-fit: the next allocation starts looking here
+
+    /** A map of size blocks, all in use. */
+    public BlockBitmap(int size) {
+        this.size = size;
+        this.words = new long[(size + 63) >>> 6];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int freeCount() {
+        return freeCount;
+    }
+
+    public boolean isFree(int block) {
+        return (words[block >>> 6] & (1L << block)) != 0;
+    }
+
+    public void free(int block) {
+        long bit = 1L << block;
+        int word = block >>> 6;
+        if ((words[word] & bit) == 0) {
+            words[word] |= bit;
+            freeCount++;
+        }
+    }
+
+    public void markUsed(int block) {
+        long bit = 1L << block;
+        int word = block >>> 6;
+        if ((words[word] & bit) != 0) {
+            words[word] &= ~bit;
+            freeCount--;
+        }
+    }
+
+    /** First free block at or after from, or -1. */
+    public int nextFree(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int word = from >>> 6;
+        long bits = words[word] & (-1L << from); // drop the blocks below from
+        while (bits == 0) {
+            if (++word == words.length) {
+                return -1;
+            }
+            bits = words[word];
+        }
+        int block = (word << 6) + Long.numberOfTrailingZeros(bits);
+        return block < size ? block : -1;
+    }
+
+    /** First used block at or after from, or size() if the rest of the map is free. */
+    public int nextUsed(int from) {
+        if (from >= size) {
+            return size;
+        }
+        int word = from >>> 6;
+        long bits = ~words[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == words.length) {
+                return size;
+            }
+            bits = ~words[word];
+        }
+        return Math.min(size, (word << 6) + Long.numberOfTrailingZeros(bits));
+    }
+
+    /** Takes the next free block after the previous allocation, or returns -1 if there is none. */
+    public int allocate() {
+        if (freeCount == 0) {
+            return -1;
+        }
+        int block = nextFree(cursor);
+        if (block < 0) {
+            block = nextFree(0);
+        }
+        markUsed(block);
+        cursor = block + 1;
+        return block;
+    }
+
+    /**
+     * Takes up to max adjacent free blocks, starting where {@link #allocate()} would. Returns
+     * the first block in the high 32 bits and the run length in the low 32, or -1 if the map
+     * is full.
+     */
+    public long allocateRun(int max) {
+        if (freeCount == 0 || max < 1) {
+            return -1;
+        }
+        int start = nextFree(cursor);
+        if (start < 0) {
+            start = nextFree(0);
+        }
+        int length = Math.min(max, nextUsed(start) - start);
+        for (int block = start; block < start + length; block++) {
+            markUsed(block);
+        }
+        cursor = start + length;
+        return ((long) start << 32) | length;
+    }
+}
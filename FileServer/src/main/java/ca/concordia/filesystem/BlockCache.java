@@ -0,0 +1,350 @@
+package ca.concordia.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Fixed-size cache of data blocks for READ, evicting with CLOCK: every slot has a referenced bit
+ * that a hit sets, and the hand clears bits as it goes round until it finds a slot whose bit is
+ * already clear. Blocks are cached in aligned pages of 4KB worth of blocks (one block if blocks
+ * are larger), so a small block costs one lookup per page rather than one per block.
+ *
+ * The slots are split over up to 16 stripes by page index, so neighbouring pages land on
+ * different stripes. Each stripe has its own slots, hand and lock, and finds its pages through
+ * an open-addressed table twice the size of its slots, so the cache's memory follows its size
+ * and not the image's. A slot keeps its buffer for good: a miss claims a slot, reads the disk
+ * straight into it and only then puts it in the table, and a write patches it in place.
+ *
+ * Readers take no lock. They copy from a slot under an optimistic read of the slot's
+ * StampedLock and keep the copy only if no write lock was taken meanwhile; a claim, a patch
+ * and a drop all hold it. A reader whose copies keep being torn takes the read lock instead.
+ * Everything else that changes a stripe holds the stripe's lock.
+ *
+ * A page can hold blocks of several files, so a reader filling it may race a writer of another
+ * file, or the blocks being freed. Every write and drop bumps a version kept by the page's home
+ * position in the table, and a filled slot goes in the table only if that version is still the
+ * one the reader saw before reading the disk. Pages that share a home position share a version,
+ * which at worst keeps a page out of the cache until its next miss.
+ */
+final class BlockCache {
+
+    private static final int PAGE_BYTES = 4096;
+    private static final int FILL_BYTES = 64 * 1024; //most a miss reads from disk at once
+    private static final int STRIPES = 16;            //most stripes; a power of two
+    private static final int OPTIMISTIC_TRIES = 4;    //torn copies before a reader takes the read lock
+
+    private static final class Slot {
+        final StampedLock lock = new StampedLock(); //write-locked while its bytes or page change
+        byte[] data;             //allocated on first use, then kept
+        int index = -1;          //page held, -1 for none; changed under the write lock
+        boolean filling;         //claimed by a miss and not in the table; guarded by the stripe's lock
+        long claim;              //write stamp held while filling
+        volatile boolean referenced;
+    }
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final AtomicReferenceArray<Slot> table; //linear probing; changed under lock only
+        final AtomicIntegerArray versions;      //by home position, bumped under lock
+        final Slot[] slots;
+        int hand;                               //guarded by lock
+
+        Stripe(int slots, int tableSize) {
+            this.table = new AtomicReferenceArray<>(tableSize);
+            this.versions = new AtomicIntegerArray(tableSize);
+            this.slots = new Slot[slots];
+            for (int i = 0; i < slots; i++) this.slots[i] = new Slot();
+        }
+    }
+
+    private final int blockSize;
+    private final int pageSize;
+    private final long imageBytes;
+    private final Stripe[] stripes;
+    private final int stripeBits;
+    private final int tableBits;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /** A cache of at most bytes for an image of maxBlocks; bytes must hold at least one page. */
+    BlockCache(long bytes, int blockSize, int maxBlocks) {
+        this.blockSize = blockSize;
+        this.pageSize = pageSize(blockSize);
+        this.imageBytes = (long) maxBlocks * blockSize;
+        long capacity = Math.min(bytes / pageSize, (imageBytes + pageSize - 1) / pageSize);
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache of " + bytes + " bytes does not hold a page of " + pageSize);
+        }
+        int count = Integer.highestOneBit((int) Math.min(STRIPES, capacity));
+        int slots = (int) (capacity / count);
+        this.stripeBits = Integer.numberOfTrailingZeros(count);
+        this.tableBits = 32 - Integer.numberOfLeadingZeros(2 * slots - 1);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) stripes[i] = new Stripe(slots, 1 << tableBits);
+    }
+
+    /**
+     * Reads length bytes from image position pos into dst, copying cached pages and reading each
+     * stretch of missing ones (up to FILL_BYTES) from disk in one go, straight into the slots
+     * they are cached in.
+     */
+    void read(DiskImage disk, long pos, byte[] dst, int offset, int length) throws IOException {
+        while (length > 0) {
+            int first = (int) (pos / pageSize);
+            int skip = (int) (pos % pageSize);
+            int n = Math.min(pageLength(first) - skip, length);
+            if (copy(first, skip, dst, offset, n)) {
+                hits.increment();
+                pos += n;
+                offset += n;
+                length -= n;
+                continue;
+            }
+
+            int count = 1;
+            int[] seen = {version(first)};
+            while ((long) count * pageSize - skip < length && count * pageSize < FILL_BYTES) {
+                int version = version(first + count);
+                if (find(first + count) != null) break;
+                if (count == seen.length) seen = Arrays.copyOf(seen, count * 2);
+                seen[count++] = version;
+            }
+            misses.add(count);
+
+            Slot[] claimed = new Slot[count];
+            ByteBuffer[] run = new ByteBuffer[count];
+            boolean read = false;
+            try {
+                for (int i = 0; i < count; i++) {
+                    claimed[i] = claim(first + i);
+                    byte[] data = (claimed[i] == null) ? new byte[pageSize] : claimed[i].data;
+                    run[i] = ByteBuffer.wrap(data, 0, pageLength(first + i));
+                }
+                disk.read((long) first * pageSize, run);
+                read = true;
+                for (int i = 0; i < count; i++) {
+                    n = Math.min(pageLength(first + i) - skip, length);
+                    System.arraycopy(run[i].array(), skip, dst, offset, n);
+                    skip = 0;
+                    pos += n;
+                    offset += n;
+                    length -= n;
+                }
+            } finally {
+                for (int i = 0; i < count; i++) {
+                    if (claimed[i] != null) publish(first + i, claimed[i], seen[i], read);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write-through for a write of length bytes of src at block on, which pads the last block
+     * with zeroes: cached pages it touches are patched, others are not brought in. Call after
+     * the write reached the disk.
+     */
+    void written(int block, byte[] src, int offset, int length) {
+        long start = (long) block * blockSize;
+        long end = start + Math.max(blockSize, (length + blockSize - 1) / blockSize * (long) blockSize);
+        for (int index = (int) (start / pageSize); (long) index * pageSize < end; index++) {
+            Stripe stripe = stripe(index);
+            stripe.lock.lock();
+            try {
+                stripe.versions.incrementAndGet(home(index));
+                Slot slot = stripe.table.get(probe(stripe, index));
+                if (slot == null) continue;
+                long pagestart = (long) index * pageSize;
+                long from = Math.max(start, pagestart);
+                long to = Math.min(end, pagestart + pageLength(index));
+                long copied = Math.max(0, Math.min(to, start + length) - from);
+                long stamp = slot.lock.writeLock();
+                System.arraycopy(src, (int) (offset + from - start), slot.data, (int) (from - pagestart), (int) copied);
+                Arrays.fill(slot.data, (int) (from - pagestart + copied), (int) (to - pagestart), (byte) 0);
+                slot.lock.unlockWrite(stamp);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    /** Drops the pages holding count blocks from block on. */
+    void invalidate(int block, int count) {
+        long start = (long) block * blockSize;
+        long end = start + (long) count * blockSize;
+        for (int index = (int) (start / pageSize); (long) index * pageSize < end; index++) {
+            Stripe stripe = stripe(index);
+            stripe.lock.lock();
+            try {
+                stripe.versions.incrementAndGet(home(index));
+                int position = probe(stripe, index);
+                Slot slot = stripe.table.get(position);
+                if (slot == null) continue;
+                remove(stripe, position);
+                long stamp = slot.lock.writeLock();
+                slot.index = -1;
+                slot.lock.unlockWrite(stamp);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    /** Bytes in a page of the cache for blocks of blockSize. */
+    static int pageSize(int blockSize) {
+        return Math.max(1, PAGE_BYTES / blockSize) * blockSize;
+    }
+
+    long capacity() {
+        return (long) stripes.length * stripes[0].slots.length * pageSize;
+    }
+
+    /** Page lookups that found the page cached. */
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    private Stripe stripe(int index) {
+        return stripes[index & (stripes.length - 1)];
+    }
+
+    //Position in its stripe's table where the search for a page starts (Fibonacci hashing)
+    private int home(int index) {
+        return ((index >>> stripeBits) * 0x9E3779B9) >>> (32 - tableBits);
+    }
+
+    private int version(int index) {
+        return stripe(index).versions.get(home(index));
+    }
+
+    //Bytes of the page; the last one of the image may be short
+    private int pageLength(int index) {
+        return (int) Math.min(pageSize, imageBytes - (long) index * pageSize);
+    }
+
+    //Slot in the table for the page, without a lock; a probe racing a change may miss it
+    private Slot find(int index) {
+        AtomicReferenceArray<Slot> table = stripe(index).table;
+        int mask = table.length() - 1;
+        for (int i = home(index), n = 0; n <= mask; i = (i + 1) & mask, n++) {
+            Slot slot = table.get(i);
+            if (slot == null) break;
+            if (slot.index == index) return slot;
+        }
+        return null;
+    }
+
+    //Copies n bytes of the page from skip on if it is cached. A copy torn by a change is retried
+    //a few times; after that the copy waits for the slot's read lock instead of spinning.
+    private boolean copy(int index, int skip, byte[] dst, int offset, int n) {
+        for (int tries = 0; tries < OPTIMISTIC_TRIES; tries++) {
+            Slot slot = find(index);
+            if (slot == null) return false;
+            long stamp = slot.lock.tryOptimisticRead();
+            if (stamp == 0 || slot.index != index) {
+                Thread.onSpinWait();
+                continue;
+            }
+            System.arraycopy(slot.data, skip, dst, offset, n);
+            if (!slot.lock.validate(stamp)) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (!slot.referenced) slot.referenced = true;
+            return true;
+        }
+        Slot slot = find(index);
+        if (slot == null) return false;
+        long stamp = slot.lock.readLock();
+        try {
+            if (slot.index != index) return false; //claimed for another page meanwhile: read the disk
+            System.arraycopy(slot.data, skip, dst, offset, n);
+        } finally {
+            slot.lock.unlockRead(stamp);
+        }
+        if (!slot.referenced) slot.referenced = true;
+        return true;
+    }
+
+    //Takes a slot for a page about to be read, the first one the hand finds unreferenced and not
+    //being filled, and write-locks it until publish; null if every slot is being filled
+    private Slot claim(int index) {
+        Stripe stripe = stripe(index);
+        stripe.lock.lock();
+        try {
+            Slot[] slots = stripe.slots;
+            for (int tries = 0; tries < 2 * slots.length; tries++) {
+                Slot slot = slots[stripe.hand];
+                stripe.hand = (stripe.hand + 1 == slots.length) ? 0 : stripe.hand + 1;
+                if (slot.filling) continue;
+                if (slot.index >= 0 && slot.referenced) {
+                    slot.referenced = false;
+                    continue;
+                }
+                if (slot.index >= 0) remove(stripe, probe(stripe, slot.index));
+                slot.claim = slot.lock.writeLock();
+                slot.index = -1;
+                slot.filling = true;
+                if (slot.data == null) slot.data = new byte[pageSize];
+                return slot;
+            }
+            return null;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    //Puts a filled slot in the table unless the read failed, somebody wrote or dropped the page
+    //since its version was read, or cached it meanwhile; otherwise the slot goes back empty
+    private void publish(int index, Slot slot, int seen, boolean read) {
+        Stripe stripe = stripe(index);
+        stripe.lock.lock();
+        try {
+            int position = probe(stripe, index);
+            if (read && stripe.versions.get(home(index)) == seen && stripe.table.get(position) == null) {
+                slot.index = index;
+                slot.referenced = false;
+                stripe.table.set(position, slot);
+            }
+            slot.filling = false;
+            slot.lock.unlockWrite(slot.claim);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    //Position of the page's slot in the stripe's table, or of the empty cell it would go in;
+    //under lock
+    private int probe(Stripe stripe, int index) {
+        int mask = stripe.table.length() - 1;
+        int i = home(index);
+        for (Slot slot = stripe.table.get(i); slot != null && slot.index != index; slot = stripe.table.get(i)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    //Empties a cell and moves later slots of its cluster back, so probes never stop short of them
+    private void remove(Stripe stripe, int position) {
+        int mask = stripe.table.length() - 1;
+        int hole = position;
+        for (int i = (hole + 1) & mask; ; i = (i + 1) & mask) {
+            Slot slot = stripe.table.get(i);
+            if (slot == null) break;
+            if (((i - home(slot.index)) & mask) >= ((i - hole) & mask)) {
+                stripe.table.set(hole, slot);
+                hole = i;
+            }
+        }
+        stripe.table.set(hole, null);
+    }
+}
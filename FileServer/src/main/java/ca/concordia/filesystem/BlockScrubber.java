@@ -0,0 +1,140 @@
+package ca.concordia.filesystem;
+
+import java.io.IOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Background thread that takes freed blocks back: DELETE, a shrinking WRITE and a replaced or
+ * aborted upload only queue their old runs here. For each batch the thread first calls settle,
+ * which makes the metadata changes that unlinked the runs durable, then zeroes them (unless
+ * zeroing is off) and hands them to release, which returns them to the free map. Nothing is
+ * wiped while a crash could still bring back a file that points at it, and a block is never in
+ * the free map while it is queued, so nobody can be handed one before it is wiped.
+ *
+ * A failed wipe or release is thrown from {@link #drain()} and {@link #close()}; the blocks it
+ * held stay out of the free map until the image is mounted again.
+ */
+final class BlockScrubber {
+
+    interface Settle {
+        void run() throws IOException;
+    }
+
+    interface Wipe {
+        void run(int start, int length) throws IOException;
+    }
+
+    interface Release {
+        void run(Extents runs) throws IOException;
+    }
+
+    private final Settle settle;
+    private final Wipe wipe;
+    private final Release release;
+    private final Thread thread;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queuedRuns = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+    private volatile boolean zeroing;
+    private Extents queued = new Extents(); //guarded by lock
+    private int pending;                    //blocks queued or being scrubbed
+    private boolean closed;
+    private IOException failure;
+
+    BlockScrubber(String name, Settle settle, Wipe wipe, Release release, boolean zeroing) {
+        this.settle = settle;
+        this.wipe = wipe;
+        this.release = release;
+        this.zeroing = zeroing;
+        this.thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void setZeroing(boolean zeroing) {
+        this.zeroing = zeroing;
+    }
+
+    /** Queues runs that nothing points at any more. */
+    void add(Extents runs) {
+        if (runs.blocks() == 0) return;
+        lock.lock();
+        try {
+            for (int i = 0; i < runs.count(); i++) queued.add(runs.start(i), runs.length(i));
+            pending += runs.blocks();
+            queuedRuns.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Blocks queued or being scrubbed, not yet back in the free map. */
+    int pending() {
+        lock.lock();
+        try {
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns once every run queued so far is back in the free map. */
+    void drain() throws IOException {
+        lock.lock();
+        try {
+            while (pending > 0 && failure == null) idle.awaitUninterruptibly();
+            if (failure != null) throw new IOException("Block reclamation failed", failure);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Scrubs what is still queued and stops the thread. */
+    void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            queuedRuns.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) throw new IOException("Block reclamation failed", failure);
+    }
+
+    private void run() {
+        lock.lock();
+        try {
+            while (true) {
+                while (queued.count() == 0 && !closed) queuedRuns.awaitUninterruptibly();
+                if (queued.count() == 0) return;
+
+                Extents batch = queued;
+                queued = new Extents();
+                lock.unlock();
+                try {
+                    settle.run();
+                    if (zeroing) {
+                        for (int i = 0; i < batch.count(); i++) wipe.run(batch.start(i), batch.length(i));
+                    }
+                    release.run(batch);
+                } catch (IOException e) {
+                    lock.lock();
+                    failure = e;
+                    idle.signalAll();
+                    return;
+                }
+                lock.lock();
+                pending -= batch.blocks();
+                idle.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package ca.concordia.filesystem;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The filenames of an image at one moment, in entry table order. Immutable: CREATE and DELETE
+ * never change a snapshot, they retire it, so it can be read without a lock and held as long as
+ * a caller likes. What callers derive from a snapshot (an encoded LIST response, say) can be
+ * kept on it with {@link #derived}, and goes away with it once the directory changes.
+ */
+public final class DirectorySnapshot {
+
+    private final String[] names;
+    private final Map<Function<DirectorySnapshot, ?>, Object> derived = new ConcurrentHashMap<>(4);
+
+    DirectorySnapshot(String[] names) {
+        this.names = names;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int i) {
+        return names[i];
+    }
+
+    public String[] toArray() {
+        return names.clone();
+    }
+
+    /**
+     * What encoder makes of this snapshot, computed on first use and shared by every caller
+     * after that. The encoder is told apart by identity, so it should be a constant, and what it
+     * returns must not be modified.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T derived(Function<DirectorySnapshot, T> encoder) {
+        Object value = derived.get(encoder);
+        if (value == null) {
+            value = derived.computeIfAbsent(encoder, e -> e.apply(this));
+        }
+        return (T) value;
+    }
+}
@@ -0,0 +1,41 @@
+package ca.concordia.filesystem;
+
+import java.util.BitSet;
+
+/**
+ * Indexes of the metadata records (FEntries or FNodes) changed since they were last written.
+ * Besides the bitmap it keeps the lowest and highest index marked, so looking for them only
+ * covers the span an operation touched rather than the whole table. Adjacent indexes come back
+ * as one run, which goes to the image as one write. Not thread-safe; the filesystem's write
+ * lock guards it.
+ */
+final class DirtyIndexes {
+
+    private final BitSet marked = new BitSet();
+    private int low = Integer.MAX_VALUE;
+    private int high = -1;
+
+    void mark(int index) {
+        marked.set(index);
+        low = Math.min(low, index);
+        high = Math.max(high, index);
+    }
+
+    /** First marked index at or after from, or -1 if there is none. */
+    int nextRun(int from) {
+        if (from > high) return -1;
+        return marked.nextSetBit(Math.max(from, low));
+    }
+
+    /** End (exclusive) of the run of marked indexes that starts at start. */
+    int runEnd(int start) {
+        return marked.nextClearBit(start);
+    }
+
+    void clear() {
+        if (high < 0) return;
+        marked.clear(low, high + 1);
+        low = Integer.MAX_VALUE;
+        high = -1;
+    }
+}
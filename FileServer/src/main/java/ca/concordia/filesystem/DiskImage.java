@@ -0,0 +1,43 @@
+package ca.concordia.filesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Byte-addressed access to the filesystem image. {@link FileSystemManager} decides the layout;
+ * an implementation only moves bytes, so every backend reads and writes the same file format.
+ * Shorts and ints are big-endian, as RandomAccessFile.writeShort() wrote them.
+ */
+interface DiskImage extends Closeable {
+
+    long length() throws IOException;
+
+    /** Grows the image with zeroes to at least length bytes. */
+    void ensureLength(long length) throws IOException;
+
+    void read(long position, byte[] dst, int offset, int length) throws IOException;
+
+    /** Fills the remaining bytes of dsts back to back from position, in one syscall where it can. */
+    void read(long position, ByteBuffer[] dsts) throws IOException;
+
+    void write(long position, byte[] src, int offset, int length) throws IOException;
+
+    /** Writes the remaining bytes of srcs back to back from position, in one syscall where it can. */
+    void write(long position, ByteBuffer[] srcs) throws IOException;
+
+    short readShort(long position) throws IOException;
+
+    void writeShort(long position, short value) throws IOException;
+
+    int readInt(long position) throws IOException;
+
+    void writeInt(long position, int value) throws IOException;
+
+    /** Channel over the same file, for transferTo. */
+    FileChannel channel();
+
+    /** Forces everything written so far to the storage device. */
+    void force() throws IOException;
+}
@@ -0,0 +1,30 @@
+package ca.concordia.filesystem;
+
+/**
+ * When a change {@link FileSystemManager} has acknowledged is on the storage device.
+ *
+ * ASYNC leaves it to the operating system's write-back (or, with a journal, to the next commit):
+ * the reply is fastest, a crash of the process loses nothing, and a power loss can take recent
+ * changes with it. With a journal, ASYNC and BATCHED changes are written to the journal file
+ * before the reply, just not forced, and a power loss can also bring a recent change back with
+ * stale content. BATCHED replies at once and forces in the background, once the oldest unforced
+ * change is a batch interval old or a batch of changes is waiting, so at most that window is
+ * lost and one force is shared by the whole batch. SYNC forces before replying. The filesystem
+ * has a default, which each operation may override.
+ */
+public enum Durability {
+    ASYNC,
+    BATCHED,
+    SYNC;
+
+    public static Durability parse(String value) {
+        if (value == null || value.isBlank()) {
+            return ASYNC;
+        }
+        try {
+            return Durability.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown durability '" + value + "' (expected async, batched or sync)");
+        }
+    }
+}
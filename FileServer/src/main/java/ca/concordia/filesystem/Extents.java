@@ -0,0 +1,79 @@
+package ca.concordia.filesystem;
+
+import java.util.Arrays;
+
+/**
+ * A file's blocks as runs of physically adjacent blocks, in file order. Run i starts at image
+ * block start(i) and holds file blocks end(i - 1) up to end(i) - 1; keeping the running end of
+ * every run makes finding the run that holds a file offset a binary search. Adding a run that
+ * continues the last one extends it instead.
+ */
+final class Extents {
+
+    private int[] starts = new int[4];
+    private int[] ends = new int[4];
+    private int count;
+
+    void add(int start, int length) {
+        if (count > 0 && start(count - 1) + length(count - 1) == start) {
+            ends[count - 1] += length;
+            return;
+        }
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = blocks() + length;
+        count++;
+    }
+
+    int count() {
+        return count;
+    }
+
+    int start(int i) {
+        return starts[i];
+    }
+
+    int length(int i) {
+        return ends[i] - (i == 0 ? 0 : ends[i - 1]);
+    }
+
+    /** File block just past run i. */
+    int end(int i) {
+        return ends[i];
+    }
+
+    int blocks() {
+        return count == 0 ? 0 : ends[count - 1];
+    }
+
+    /** Every block of the file, in order. */
+    int[] toBlocks() {
+        int[] blocks = new int[blocks()];
+        for (int i = 0, n = 0; i < count; i++) {
+            for (int block = starts[i]; block < starts[i] + length(i); block++) {
+                blocks[n++] = block;
+            }
+        }
+        return blocks;
+    }
+
+    /** Run holding file block n, or -1 if the file is shorter. */
+    int find(int n) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] <= n) {
+                low = mid + 1;
+            } else if (mid > 0 && ends[mid - 1] > n) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,140 @@
+package ca.concordia.filesystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The default backend: positional FileChannel reads and writes (pread/pwrite). There is no
+ * shared file pointer, so any number of readers holding the read lock can use the image at
+ * the same time without stepping on each other's seeks.
+ */
+final class FileDiskImage implements DiskImage {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Object gather = new Object(); //guards the channel position, used only by gathering writes and scattering reads
+
+    FileDiskImage(String filename) throws IOException {
+        this.file = new RandomAccessFile(filename, "rw");
+        this.channel = file.getChannel();
+    }
+
+    @Override
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void ensureLength(long length) throws IOException {
+        if (channel.size() < length) {
+            file.setLength(length);
+        }
+    }
+
+    @Override
+    public void read(long position, byte[] dst, int offset, int length) throws IOException {
+        read(position, ByteBuffer.wrap(dst, offset, length));
+    }
+
+    @Override
+    public void write(long position, byte[] src, int offset, int length) throws IOException {
+        write(position, ByteBuffer.wrap(src, offset, length));
+    }
+
+    @Override
+    public void read(long position, ByteBuffer[] dsts) throws IOException {
+        if (dsts.length == 1) {
+            read(position, dsts[0]);
+            return;
+        }
+        long remaining = 0;
+        for (ByteBuffer dst : dsts) remaining += dst.remaining();
+        //No positional scattering read either; see the gathering write below
+        synchronized (gather) {
+            channel.position(position);
+            while (remaining > 0) {
+                long n = channel.read(dsts);
+                if (n < 0) {
+                    throw new EOFException("Read past the end of the image at " + channel.position());
+                }
+                remaining -= n;
+            }
+        }
+    }
+
+    @Override
+    public void write(long position, ByteBuffer[] srcs) throws IOException {
+        if (srcs.length == 1) {
+            write(position, srcs[0]);
+            return;
+        }
+        long remaining = 0;
+        for (ByteBuffer src : srcs) remaining += src.remaining();
+        //FileChannel has no positional gathering write, so this seeks and then writes; every
+        //other access is positional and never looks at the channel position
+        synchronized (gather) {
+            channel.position(position);
+            while (remaining > 0) {
+                remaining -= channel.write(srcs);
+            }
+        }
+    }
+
+    @Override
+    public short readShort(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        read(position, buffer);
+        return buffer.getShort(0);
+    }
+
+    @Override
+    public void writeShort(long position, short value) throws IOException {
+        write(position, ByteBuffer.allocate(2).putShort(0, value));
+    }
+
+    @Override
+    public int readInt(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        read(position, buffer);
+        return buffer.getInt(0);
+    }
+
+    @Override
+    public void writeInt(long position, int value) throws IOException {
+        write(position, ByteBuffer.allocate(4).putInt(0, value));
+    }
+
+    @Override
+    public FileChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private void read(long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Read past the end of the image at " + position);
+            }
+            position += n;
+        }
+    }
+
+    private void write(long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ca.concordia.filesystem;
+
+/**
+ * Filename to FEntry slot, as an open-addressing hash table with linear probing. Sized once for
+ * the image's file slots at no more than half full, so probes stay short and it never resizes.
+ * Deletes shift later entries of the probe run back instead of leaving tombstones, so a table
+ * that sees many creates and deletes does not slow down. Guarded by the filesystem's metadata
+ * lock like the entry table it mirrors; lookups may also run optimistically under it.
+ */
+final class FileIndex {
+
+    private final String[] names;
+    private final int[] hashes;
+    private final int[] slots;
+    private final int mask;
+
+    FileIndex(int maxFiles) {
+        int capacity = Integer.highestOneBit(Math.max(2, maxFiles) * 2 - 1) << 1;
+        this.names = new String[capacity];
+        this.hashes = new int[capacity];
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * FEntry slot of name, or -1. Reads every array element once, so an optimistic reader racing
+     * a writer gets a wrong answer (which it then throws away) rather than a NullPointerException.
+     */
+    int find(String name) {
+        int hash = hash(name);
+        String candidate;
+        for (int i = hash & mask; (candidate = names[i]) != null; i = (i + 1) & mask) {
+            if (hashes[i] == hash && candidate.equals(name)) {
+                return slots[i];
+            }
+        }
+        return -1;
+    }
+
+    void put(String name, int slot) {
+        int hash = hash(name);
+        int i = hash & mask;
+        while (names[i] != null && !(hashes[i] == hash && names[i].equals(name))) {
+            i = (i + 1) & mask;
+        }
+        names[i] = name;
+        hashes[i] = hash;
+        slots[i] = slot;
+    }
+
+    void remove(String name) {
+        int hash = hash(name);
+        int i = hash & mask;
+        while (names[i] != null && !(hashes[i] == hash && names[i].equals(name))) {
+            i = (i + 1) & mask;
+        }
+        if (names[i] == null) {
+            return;
+        }
+        // Backward shift: pull up every later entry of the run that may no longer be reachable
+        int hole = i;
+        for (int j = (hole + 1) & mask; names[j] != null; j = (j + 1) & mask) {
+            int home = hashes[j] & mask;
+            boolean reachable = (hole <= j) ? (hole < home && home <= j) : (hole < home || home <= j);
+            if (!reachable) {
+                names[hole] = names[j];
+                hashes[hole] = hashes[j];
+                slots[hole] = slots[j];
+                hole = j;
+            }
+        }
+        names[hole] = null;
+    }
+
+    static int hash(String name) {
+        int h = name.hashCode() * 0x9E3779B9; // spread similar names ("f1", "f2", ...) apart
+        return h ^ (h >>> 16);
+    }
+}
@@ -2,192 +2,411 @@ package ca.concordia.filesystem;
 
 import ca.concordia.filesystem.datastructures.FEntry;
 
-import java.io.RandomAccessFile;
-import java.util.concurrent.locks.ReentrantLock;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
 
 
 
 public class FileSystemManager {
-    
-    private final int MAXFILES = 5; //Number of FEntry slots
-    private final int MAXBLOCKS = 10; //number of blocks
-    //private final static FileSystemManager instance;
-    private final RandomAccessFile disk;
-    private final ReentrantLock globalLock = new ReentrantLock();
 
-    private static final int BLOCK_SIZE = 128; // Example block size
-    private static final int FEntry_size = 15; //11 name + 2 size + 2 first block
-    private static final int FNode_size = 4; //2 block index + 2 for  nextBlock
+    //Images formatted with a superblock start with this magic. Its first byte is not ASCII, and a
+    //legacy image starts with an ASCII filename byte or a zero, so the two can never be confused.
+    private static final byte[] MAGIC = {(byte) 0x89, 'C', 'F', 'S', '\r', '\n', 0x1a, '\n'};
+    private static final int VERSION = 1;
+    private static final int SUPERBLOCK_SIZE = 64; //magic, version, block size, files, blocks, layout, reserved
+    private static final int FILE_LOCK_STRIPES = 256; //power of two
+    private static final long JOURNAL_BACKLOG = 1 << 20; //ASYNC journal records queued before the flusher commits them
+    private static final int UPLOAD_BUFFER = 64 * 1024; //upload data collected before it goes to disk in runs
+    private static final int SEND_BUFFER = 64 * 1024; //most of a file a cached READ holds on the heap at once
+    private static final int META_BUFFER = 64 * 1024; //largest single metadata write
+
+    private final int MAXFILES; //Number of FEntry slots
+    private final int MAXBLOCKS; //number of blocks
+    //private final static FileSystemManager instance;
+    private final DiskImage disk;
+    private final ForcePolicy forcePolicy;
+    private final MetadataJournal journal; //null unless forcePolicy is JOURNAL
+    private volatile Durability durability; //for operations that do not ask for one
+    private volatile int batchmillis = 10;
+    private volatile int batchops = 64;
+    private volatile BatchFlusher flusher; //started by the first BATCHED change, set under this
+    private BlockScrubber scrubber; //started by the first freed block, guarded by this
+    private volatile boolean zerofreed = true; //the scrubber wipes freed blocks before reuse
+    private volatile BlockCache cache; //null when turned off
+    private final String imagename;
+
+    private final int BLOCK_SIZE;
+    private final boolean legacy;  //no superblock: 2-byte fields
+    private final Layout layout;   //how a file's blocks are recorded
+    private final int FEntry_size; //11 name + size + first block
+    private final int FNode_size;  //block index + nextBlock
+    private final int maxfilesize;
 
     private final int entryoffset;
-    private final int nodeoffset;
-    private final int metadatabytes;
+    private final long nodeoffset;
+    private final long metadatabytes;
     private final int metadatablocks;
+    private final byte[] zeros; //source for wiping freed runs
+
+    private FEntry[] inodeTable; // Array of inodes
+    private final FileIndex fileindex; // filename -> inodeTable slot
+    private final AtomicReferenceArray<Extents> extentcache; // resolved runs per inodeTable slot, null until read
+    private int freeentryhint; // no free inodeTable slot below this one
+    private volatile DirectorySnapshot directory; // null from a CREATE or DELETE until the next listing
+    private final int[] fnodeBlockIndex;
+    private final int[] fnodeNext;
+    private final DirtyIndexes dirtyentries = new DirtyIndexes(); //changed, not yet written; guarded by metaWrite
+    private final DirtyIndexes dirtynodes = new DirtyIndexes();
+    private final byte[] metabuffer = new byte[META_BUFFER]; //records being written, guarded by metaWrite
+    private final BlockBitmap freeblocks; // Bitmap for free blocks
+    private final StampedLock metaLock = new StampedLock(); //entry table, index, FNodes, free map
+    private final Lock metaRead = metaLock.asReadLock();
+    private final Lock metaWrite = metaLock.asWriteLock();
+    private final ReentrantReadWriteLock[] fileLocks = new ReentrantReadWriteLock[FILE_LOCK_STRIPES];
+
+    public FileSystemManager(String filename, long totalSize) throws IOException {
+        this(filename, totalSize, StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+    }
 
-    private FEntry[] inodeTable = new FEntry[MAXFILES]; // Array of inodes
-    private final short [] fnodeBlockIndex = new short[MAXBLOCKS];
-    private final short[] fnodeNext = new short[MAXBLOCKS];
-    private boolean[] freeblocklist = new boolean[MAXBLOCKS]; // Bitmap for free blocks
-    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock(true);
+    public FileSystemManager(String filename, long totalSize, StorageBackend backend, ForcePolicy forcePolicy) throws IOException {
+        this(filename, Geometry.forSize(totalSize), backend, forcePolicy);
+    }
 
-    public FileSystemManager(String filename, int totalSize) throws IOException {
-        
+    public FileSystemManager(String filename, Geometry geometry, StorageBackend backend, ForcePolicy forcePolicy) throws IOException {
+        this(filename, geometry, Layout.CHAINED, backend, forcePolicy);
+    }
 
-        // Initialize the file system manager with a file
-        this.entryoffset = 0;
-        this.nodeoffset = MAXFILES * FEntry_size;
-        this.metadatabytes = MAXFILES * FEntry_size + MAXBLOCKS * FNode_size;
-        this.metadatablocks = (metadatabytes + BLOCK_SIZE - 1) / BLOCK_SIZE;
-        this.disk = new RandomAccessFile(filename, "rw");
+    //geometry and layout are only used to format a new image; an existing one keeps the ones in
+    //its superblock, or the fixed legacy geometry and chained layout if it has none.
+    public FileSystemManager(String filename, Geometry geometry, Layout layout, StorageBackend backend, ForcePolicy forcePolicy) throws IOException {
 
-        long expectedsize = (long) MAXBLOCKS * BLOCK_SIZE;
+        // Initialize the file system manager with a file
+        this.disk = backend.open(filename);
+        this.forcePolicy = forcePolicy;
+        this.imagename = filename;
+        this.durability = (forcePolicy == ForcePolicy.ON_CLOSE) ? Durability.ASYNC : Durability.SYNC;
         long currentsize = disk.length();
+        boolean format = (currentsize == 0);
+        if (!format) {
+            //Whatever policy the image was last used with, metadata left in its journal goes in first
+            MetadataJournal.replay(MetadataJournal.pathFor(filename), disk);
+            geometry = read_superblock_FD(currentsize);
+        }
 
-        if(currentsize == 0) {
-            disk.setLength(expectedsize);
+        this.legacy = (geometry == Geometry.LEGACY);
+        this.layout = legacy ? Layout.CHAINED : format ? layout : read_layout_FD();
+        this.MAXFILES = geometry.getMaxFiles();
+        this.MAXBLOCKS = geometry.getMaxBlocks();
+        this.BLOCK_SIZE = geometry.getBlockSize();
+        this.FEntry_size = legacy ? 15 : 19;
+        this.FNode_size = legacy ? 4 : 8;
+        this.maxfilesize = legacy ? Short.MAX_VALUE : Integer.MAX_VALUE - 8;
+        this.entryoffset = legacy ? 0 : SUPERBLOCK_SIZE;
+        this.nodeoffset = entryoffset + (long) MAXFILES * FEntry_size;
+        this.metadatabytes = nodeoffset + (long) MAXBLOCKS * FNode_size;
+        long metablocks = (metadatabytes + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (metablocks >= MAXBLOCKS) {
+            disk.close();
+            throw new IOException("Image too small: " + geometry + " leaves no room for data after the metadata");
+        }
+        this.metadatablocks = (int) metablocks;
+        this.zeros = new byte[Math.max(BLOCK_SIZE, 64 * 1024)];
+
+        this.inodeTable = new FEntry[MAXFILES];
+        this.fileindex = new FileIndex(MAXFILES);
+        this.extentcache = new AtomicReferenceArray<>(MAXFILES);
+        for (int i = 0; i < fileLocks.length; i++) fileLocks[i] = new ReentrantReadWriteLock(true);
+        this.fnodeBlockIndex = new int[MAXBLOCKS];
+        this.fnodeNext = new int[MAXBLOCKS];
+        this.freeblocks = new BlockBitmap(MAXBLOCKS);
+
+        long expectedsize = geometry.getTotalSize();
+        if(format) {
+            disk.ensureLength(expectedsize);
             ini_empty_filesystem_OD();
+            write_superblock_OD();
         }
         else if (currentsize < expectedsize){
-            disk.setLength(expectedsize);
+            disk.ensureLength(expectedsize);
             load_metadata_FD();
         }
         else{
             load_metadata_FD();
         }
+        this.journal = (forcePolicy == ForcePolicy.JOURNAL) ? new MetadataJournal(MetadataJournal.pathFor(filename), disk) : null;
+    }
+
+    public Geometry getGeometry() {
+        return new Geometry(MAXFILES, MAXBLOCKS, BLOCK_SIZE);
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    //Callers hold one of the file locks around every operation on a file: the read side for
+    //READ and transfers, the write side for anything that changes the file. Two files share a
+    //lock only when their names land on the same stripe. The entry table, filename index, FNodes
+    //and free map are guarded inside this class by metaLock, which is held only for the
+    //metadata steps, so writers to different files do their data I/O in parallel. metaLock is
+    //a StampedLock and is not reentrant: nothing here takes it while already holding it.
+    public void lockRead(String filename) {
+        stripe(filename).readLock().lock();
+    }
+    public void unlockRead(String filename) {
+        stripe(filename).readLock().unlock();
     }
-    public void lockRead() {
-        rwLock.readLock().lock();
+    public void lockWrite(String filename) {
+        stripe(filename).writeLock().lock();
     }
-    public void unlockRead() {
-        rwLock.readLock().unlock();
+    public void unlockWrite(String filename) {
+        stripe(filename).writeLock().unlock();
     }
+
+    //Every stripe, in order: no file operation runs while this is held.
     public void lockWrite() {
-        rwLock.writeLock().lock();
+        for (ReentrantReadWriteLock lock : fileLocks) lock.writeLock().lock();
     }
     public void unlockWrite() {
-        rwLock.writeLock().unlock();
+        for (int i = fileLocks.length - 1; i >= 0; i--) fileLocks[i].writeLock().unlock();
+    }
+
+    //Durability of operations called without one. Starts as SYNC for ON_WRITE and JOURNAL, ASYNC
+    //for ON_CLOSE.
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    //A BATCHED change is forced at most millis after it was made, or once ops changes are waiting.
+    public synchronized void setBatchWindow(int millis, int ops) {
+        if (millis < 1 || ops < 1) throw new IllegalArgumentException("Batch window must be at least 1 ms and 1 operation.");
+        this.batchmillis = millis;
+        this.batchops = ops;
+        if (flusher != null) flusher.setWindow(millis, ops);
+    }
+
+    //Whether freed blocks are zeroed before they can be handed out again. Without it, a freed
+    //block keeps its old content on disk until it is written, but no reader can reach it.
+    public synchronized void setZeroFreedBlocks(boolean zero) {
+        this.zerofreed = zero;
+        if (scrubber != null) scrubber.setZeroing(zero);
+    }
+
+    //Bytes of data blocks kept in memory for READ, in whole cache pages (4KB of blocks) and never
+    //more than the image holds; less than a page turns the cache off. A new size starts empty.
+    //Off unless set: it pays when the blocks read most fit in it, and costs a copy and a lookup
+    //per page when they do not. A mapped image is already memory and gains nothing from it.
+    public void setBlockCacheBytes(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Cache size must not be negative.");
+        this.cache = (bytes < BlockCache.pageSize(BLOCK_SIZE)) ? null : new BlockCache(bytes, BLOCK_SIZE, MAXBLOCKS);
+    }
+
+    public long getBlockCacheBytes() {
+        BlockCache current = cache;
+        return (current == null) ? 0 : current.capacity();
+    }
+
+    //Page lookups of READs since the cache was last sized
+    public long getCacheHits() {
+        BlockCache current = cache;
+        return (current == null) ? 0 : current.hits();
+    }
+
+    public long getCacheMisses() {
+        BlockCache current = cache;
+        return (current == null) ? 0 : current.misses();
+    }
+
+    //Blocks freed but not yet back in the free map
+    public int getPendingReclaim() {
+        BlockScrubber pending;
+        synchronized (this) {
+            pending = scrubber;
+        }
+        return (pending == null) ? 0 : pending.pending();
+    }
+
+    //Forces the image to the device and releases it; caller holds lockWrite().
+    public void close() throws IOException {
+        BlockScrubber reclaim;
+        BatchFlusher batch;
+        synchronized (this) {
+            reclaim = scrubber;
+            scrubber = null;
+        }
+        if (reclaim != null) reclaim.close();
+        synchronized (this) {
+            batch = flusher;
+            flusher = null;
+        }
+        if (batch != null) batch.close();
+        if (journal != null) journal.close();
+        disk.force();
+        disk.close();
+    }
+
+    //Forces of the metadata journal so far, each shared by every operation of its group; 0
+    //without a journal.
+    public long getJournalCommits() {
+        return (journal == null) ? 0 : journal.commits();
     }
 
     public void createFile(String filename) throws Exception {
+        createFile(filename, null);
+    }
+
+    //durability null means the filesystem's default, here and in the other mutating operations
+    public void createFile(String filename, Durability durability) throws Exception {
         
+            check_flush();
             check_filename(filename);
-            if (find_file_index(filename) != -1) {
-                throw new Exception("File Already exists");
-            }
+            long sequence;
+            metaWrite.lock();
+            try {
+                if (find_file_index(filename) != -1) {
+                    throw new Exception("File Already exists");
+                }
+
+                int freeindex = free_FEntry_index();
+                if (freeindex == -1) {
+                    throw new Exception("No Free FEntry available");
+                }
 
-            int freeindex = free_FEntry_index();
-            if (freeindex == -1) {
-                throw new Exception("No Free FEntry available");
+                FEntry entry = new FEntry(filename, 0, -1);
+                inodeTable[freeindex] = entry;
+                fileindex.put(filename, freeindex);
+                directory = null;
+                write_FEntry_OD(freeindex);
+                sequence = seal_OD();
+            } finally {
+                metaWrite.unlock();
             }
-            
-            FEntry entry = new FEntry(filename, (short) 0, (short) -1);
-            inodeTable[freeindex] = entry;
-            write_FEntry_OD(freeindex, entry);
+            commit_OD(sequence, durability);
         
 
     }
     
+    //Caller holds lockWrite(filename). Only metadata changes here: the blocks go to the scrubber,
+    //which wipes them and returns them to the free map later.
     public void deleteFile(String filename) throws Exception {
-       
-            int index = find_file_index(filename);
-            if(index==-1){
-                throw new Exception("file does not Exist");
-            }
-            FEntry entry = inodeTable[index];
-            short firstblock = entry.getFirstBlock();
-
-            int current = firstblock;
-            while (current >= 0 && current < MAXBLOCKS) {
-                int next = fnodeNext[current];
-                fnodeBlockIndex[current] = (short) -current;
-                fnodeNext[current] = -1;
-                freeblocklist[current] = (current >= metadatablocks);
+        deleteFile(filename, null);
+    }
 
-                write_FNode_OD(current);
-                if (current >= metadatablocks) empty_data_block(current);
-                current = next;
+    public void deleteFile(String filename, Durability durability) throws Exception {
+       
+            check_flush();
+            long sequence;
+            metaWrite.lock();
+            try {
+                int index = find_file_index(filename);
+                if(index==-1){
+                    throw new Exception("file does not Exist");
+                }
+                release_file_blocks_OD(file_extents(index));
+                inodeTable[index] = null;
+                extentcache.set(index, null);
+                fileindex.remove(filename);
+                freeentryhint = Math.min(freeentryhint, index);
+                directory = null;
+                write_FEntry_OD(index);
+                sequence = seal_OD();
+            } finally {
+                metaWrite.unlock();
             }
-            inodeTable[index] = null;
-            write_empty_FEntry_OD(index);
+            commit_OD(sequence, durability);
         
         
     }
 
 
+    //Caller holds lockWrite(filename). New blocks are reserved under metaLock, the data is written
+    //without it, and the new blocks are linked and published under it again; the old ones go to
+    //the scrubber in that same step. A rewrite therefore needs room for the whole new content.
     public void writeFile(String filename, byte[] contents) throws Exception {
-       
-            int index = find_file_index(filename);
-            if (index==-1){
-                throw new Exception("file does not exist");
-            }
+        writeFile(filename, contents, null);
+    }
 
-            FEntry entry = inodeTable[index];
+    public void writeFile(String filename, byte[] contents, Durability durability) throws Exception {
+       
+            check_flush();
             int filesize = contents.length;
+            if (filesize > maxfilesize) throw new Exception("file too large");
             int blocksneeded = (filesize==0) ? 0 : ((filesize + BLOCK_SIZE -1)/ BLOCK_SIZE);
 
-            List<Integer> oldchain = get_block_chain(entry);
-            int oldblocks = oldchain.size();
-
-            int freeblocks = 0;
-            for (int i = metadatablocks; i < MAXBLOCKS; i++){
-                if (freeblocklist[i]) freeblocks++;
-            }
-
-            List<Integer> newchain = new ArrayList<>();
-            int needed = blocksneeded;
-
-            int recycleblocks = Math.min(needed, oldblocks);
-            for (int i = 0; i < recycleblocks; i++){
-                newchain.add(oldchain.get(i));
-            }
-
-            needed -= recycleblocks;
-            if (needed > 0){
-                for (int i = metadatablocks; i < MAXBLOCKS && needed > 0; i++){
-                    if (freeblocklist[i]){
-                        newchain.add(i);
-                        needed--;
+            int index;
+            long sequence;
+            Extents newextents = new Extents(); //taken from the free map in runs, never the old blocks
+            while (true){
+                BlockScrubber reclaim;
+                metaWrite.lock();
+                try {
+                    index = find_file_index(filename);
+                    if (index==-1){
+                        throw new Exception("file does not exist");
                     }
+                    if (blocksneeded <= freeblocks.freeCount()){
+                        while (newextents.blocks() < blocksneeded){
+                            long run = freeblocks.allocateRun(blocksneeded - newextents.blocks());
+                            newextents.add((int) (run >>> 32), (int) run);
+                        }
+                        break;
+                    }
+                    //Only when the scrubber holds no blocks is the image really full. Asked under
+                    //metaWrite, which every block given to it or back from it also takes.
+                    reclaim = reclaim_pending();
+                    if (reclaim == null) throw new Exception("No free blocks available");
+                } finally {
+                    metaWrite.unlock();
                 }
+                reclaim.drain();
             }
 
-            if (newchain.size() != blocksneeded) throw new Exception("Internal error: could not allocate enough blocks");
-            for (int i = 0; i < newchain.size(); i++){
-                int index_node = newchain.get(i);
-                fnodeBlockIndex[index_node] = (short) index_node;
-                int index_next = (i==newchain.size() -1) ? -1 : newchain.get(i+1);
-                fnodeNext[index_node] = (short) index_next;
-                freeblocklist[index_node] = false;
-                write_FNode_OD(index_node);
-            }
-
-            for (int i = recycleblocks; i < oldblocks; i++){
-                int index_node = oldchain.get(i);
-                fnodeBlockIndex[index_node] = (short) -index_node;
-                fnodeNext[index_node] = -1;
-                freeblocklist[index_node] = (index_node >= metadatablocks);
-                write_FNode_OD(index_node);
-                if (index_node >= metadatablocks) empty_data_block(index_node);
+            //Copy-on-write, as commitUpload: the new content goes to blocks no file links yet, so
+            //a failure or crash part way leaves the file whole with its old content. The new
+            //blocks were never linked, so a failure gives them back through the scrubber.
+            try {
+                int offset = 0;
+                for (int i = 0; i < newextents.count(); i++){
+                    int towrite = (int) Math.min((long) newextents.length(i) * BLOCK_SIZE, filesize - offset);
+                    write_data_block(newextents.start(i), contents, offset, towrite);
+                    offset += towrite;
+                }
+            } catch (IOException | RuntimeException e) {
+                block_scrubber().add(newextents);
+                throw e;
             }
 
-            int offset =0;
-            for (int i=0; i<newchain.size(); i++){
-                int index_node = newchain.get(i);
-                int index_write = Math.min(BLOCK_SIZE, filesize - offset);
-                write_data_block(index_node, contents, offset, index_write);
-                offset += index_write;
+            //One metadata update links the new blocks, points the FEntry at them and hands the
+            //old ones to the scrubber
+            metaWrite.lock();
+            try {
+                release_file_blocks_OD(file_extents(index));
+                link_blocks_OD(newextents);
+                int firstblock = (newextents.count() == 0) ? -1 : newextents.start(0);
+                inodeTable[index] = new FEntry(filename, filesize, firstblock);
+                extentcache.set(index, newextents);
+                write_FEntry_OD(index);
+                sequence = seal_OD();
+            } finally {
+                metaWrite.unlock();
             }
-
-            short firstblock = newchain.isEmpty() ? (short) -1 : newchain.get(0).shortValue();
-            entry.setFilesize((short) filesize);
-            inodeTable[index] = new FEntry(entry.getFilename(), (short) filesize, firstblock);
-            write_FEntry_OD(index, inodeTable[index]);
+            commit_OD(sequence, durability);
         
     }
 
@@ -195,22 +414,27 @@ public class FileSystemManager {
 
     public byte[] readFile(String filename) throws Exception {
         
-            int index = find_file_index(filename);
-            if (index == -1){
-                throw new Exception("file does not exist");
+            int filesize;
+            Extents extents;
+            metaRead.lock();
+            try {
+                int index = find_file_index(filename);
+                if (index == -1){
+                    throw new Exception("file does not exist");
+                }
+                filesize = inodeTable[index].getFilesize();
+                extents = file_extents(index);
+            } finally {
+                metaRead.unlock();
             }
 
-            FEntry entry = inodeTable[index];
-            int filesize = entry.getFilesize();
             if (filesize<=0) return new byte[0];
-            List<Integer> chain = get_block_chain(entry);
             byte[] result = new byte[filesize];
             int offset =0;
 
-            for (int index_node : chain){
-                int toread = Math.min(BLOCK_SIZE,  filesize - offset);
-                if (toread <=0) break;
-                read_data_block(index_node, result, offset, toread);
+            for (int i = 0; i < extents.count() && offset < filesize; i++){
+                int toread = (int) Math.min((long) extents.length(i) * BLOCK_SIZE, filesize - offset);
+                read_data_block(extents.start(i), result, offset, toread);
                 offset += toread;
             }
 
@@ -218,97 +442,381 @@ public class FileSystemManager {
        
     }
 
+
+    //Reads at most length bytes from offset on. The run holding offset is found by a binary
+    //search over the file's extents rather than by walking the blocks before it.
+    public byte[] readFile(String filename, int offset, int length) throws Exception {
+
+            int filesize;
+            Extents extents;
+            metaRead.lock();
+            try {
+                int index = find_file_index(filename);
+                if (index == -1){
+                    throw new Exception("file does not exist");
+                }
+                filesize = inodeTable[index].getFilesize();
+                extents = file_extents(index);
+            } finally {
+                metaRead.unlock();
+            }
+            if (offset < 0 || length < 0){
+                throw new Exception("invalid range");
+            }
+
+            int toread = Math.max(0, Math.min(length, filesize - offset));
+            byte[] result = new byte[toread];
+            if (toread == 0) return result;
+
+            int done = 0;
+            for (int i = extents.find(offset / BLOCK_SIZE); done < toread; i++){
+                long runoffset = (long) offset + done - (long) (extents.end(i) - extents.length(i)) * BLOCK_SIZE;
+                int n = (int) Math.min((long) extents.length(i) * BLOCK_SIZE - runoffset, toread - done);
+                read_data_bytes((long) extents.start(i) * BLOCK_SIZE + runoffset, result, done, n);
+                done += n;
+            }
+            return result;
+
+    }
+
+    //Chunked upload: beginUpload, any number of appendUpload calls, then commitUpload (or
+    //abortUpload). Only commitUpload changes the file, so only it needs lockWrite(filename);
+    //appending and aborting touch nothing but the session's own reserved blocks.
+    public UploadSession beginUpload(String filename) throws Exception {
+            metaRead.lock();
+            try {
+                if (find_file_index(filename) == -1){
+                    throw new Exception("file does not exist");
+                }
+            } finally {
+                metaRead.unlock();
+            }
+            return new UploadSession(filename, Math.max(BLOCK_SIZE, UPLOAD_BUFFER / BLOCK_SIZE * BLOCK_SIZE));
+    }
+
+
+    public void appendUpload(UploadSession upload, byte[] data, int offset, int length) throws Exception {
+            if (upload.closed) throw new Exception("upload already finished");
+            if ((long) upload.size + length > maxfilesize){
+                throw new Exception("file too large");
+            }
+
+            while (length > 0){
+                int n = Math.min(length, upload.tail.length - upload.tailLength);
+                System.arraycopy(data, offset, upload.tail, upload.tailLength, n);
+                upload.tailLength += n;
+                upload.size += n;
+                offset += n;
+                length -= n;
+                if (upload.tailLength == upload.tail.length) flush_upload_tail(upload);
+            }
+    }
+
+
+    //Links the uploaded blocks and points the FEntry at them in one step; the old blocks go to
+    //the scrubber in the same step.
+    public void commitUpload(UploadSession upload) throws Exception {
+        commitUpload(upload, null);
+    }
+
+    public void commitUpload(UploadSession upload, Durability durability) throws Exception {
+            if (upload.closed) throw new Exception("upload already finished");
+            check_flush();
+            if (upload.tailLength > 0) flush_upload_tail(upload);
+
+            Extents newextents = upload.runs;
+            boolean published = false;
+            long sequence;
+            metaWrite.lock();
+            try {
+                if (upload.closed) throw new Exception("upload already finished");
+                int index = find_file_index(upload.filename);
+                if (index != -1){
+                    Extents oldextents = file_extents(index);
+                    release_file_blocks_OD(oldextents);
+                    link_blocks_OD(newextents);
+                    int firstblock = (newextents.count() == 0) ? -1 : newextents.start(0);
+                    inodeTable[index] = new FEntry(upload.filename, upload.size, firstblock);
+                    extentcache.set(index, newextents);
+                    write_FEntry_OD(index);
+                    upload.closed = true;
+                    published = true;
+                }
+                sequence = seal_OD();
+            } finally {
+                metaWrite.unlock();
+            }
+            if (!published){
+                abortUpload(upload);
+                throw new Exception("file does not exist");
+            }
+            commit_OD(sequence, durability);
+    }
+
+
+    //Gives the reserved blocks back; they were never linked on disk, so they go straight to the
+    //scrubber.
+    public void abortUpload(UploadSession upload) throws IOException {
+            metaWrite.lock();
+            try {
+                if (upload.closed) return; //checked and set under metaWrite, as in commitUpload, so a
+                upload.closed = true;      //session's blocks are given back or published only once
+            } finally {
+                metaWrite.unlock();
+            }
+            block_scrubber().add(upload.runs);
+    }
+
+    //Metadata-only queries first try an optimistic read, which writes nothing shared: lookups
+    //never wait behind a writer and never move the lock's cache line between cores. Whatever
+    //was read is used only if validate shows no writer ran meanwhile; a lookup that raced a
+    //writer may also have thrown, and either way it is redone under the read lock.
+    public int getFileSize(String filename) throws Exception {
+            long stamp = metaLock.tryOptimisticRead();
+            try {
+                int index = find_file_index(filename);
+                FEntry entry = (index == -1) ? null : inodeTable[index];
+                if (metaLock.validate(stamp)){
+                    if (entry == null) throw new Exception("file does not exist");
+                    return entry.getFilesize();
+                }
+            } catch (RuntimeException raced) {
+                if (metaLock.validate(stamp)) throw raced;
+            }
+
+            metaRead.lock();
+            try {
+                int index = find_file_index(filename);
+                if (index == -1){
+                    throw new Exception("file does not exist");
+                }
+                return inodeTable[index].getFilesize();
+            } finally {
+                metaRead.unlock();
+            }
+    }
+
+
+    //Streams the file straight from the image to target with FileChannel.transferTo, so the
+    //bytes never pass through the Java heap. Physically adjacent blocks go out as one transfer.
+    //With the block cache on, the file is read through it instead and written from the heap,
+    //so READs on either protocol hit the cache. Caller holds lockRead(filename) throughout.
+    public long transferFile(String filename, WritableByteChannel target) throws Exception {
+
+            int filesize;
+            Extents extents;
+            metaRead.lock();
+            try {
+                int index = find_file_index(filename);
+                if (index == -1){
+                    throw new Exception("file does not exist");
+                }
+                filesize = inodeTable[index].getFilesize();
+                extents = file_extents(index);
+            } finally {
+                metaRead.unlock();
+            }
+
+            if (filesize<=0) return 0;
+            if (cache != null) return send_cached(extents, filesize, target);
+            FileChannel channel = disk.channel();
+            long sent = 0;
+
+            for (int i = 0; i < extents.count() && sent < filesize; i++){
+                long position = (long) extents.start(i) * BLOCK_SIZE;
+                long count = Math.min((long) extents.length(i) * BLOCK_SIZE, filesize - sent);
+                while (count > 0){
+                    long n = channel.transferTo(position, count, target);
+                    if (n <= 0) throw new IOException("transfer stalled (target must be a blocking channel)");
+                    position += n;
+                    count -= n;
+                    sent += n;
+                }
+            }
+            return sent;
+
+    }
+
+    //transferFile through the block cache: the runs are read in pieces of at most SEND_BUFFER
+    //bytes and each piece is written to target before the next is read
+    private long send_cached(Extents extents, int filesize, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(filesize, SEND_BUFFER));
+        long sent = 0;
+        for (int i = 0; i < extents.count() && sent < filesize; i++){
+            long position = (long) extents.start(i) * BLOCK_SIZE;
+            long count = Math.min((long) extents.length(i) * BLOCK_SIZE, filesize - sent);
+            while (count > 0){
+                int n = (int) Math.min(count, buffer.capacity());
+                read_data_bytes(position, buffer.array(), 0, n);
+                buffer.clear().limit(n);
+                while (buffer.hasRemaining()){
+                    if (target.write(buffer) <= 0) throw new IOException("transfer stalled (target must be a blocking channel)");
+                }
+                position += n;
+                count -= n;
+                sent += n;
+            }
+        }
+        return sent;
+    }
+
     public String[] listFiles() throws IOException {
        
-            List<String> filenames = new ArrayList<>();
-            for (FEntry entry : inodeTable) {
-                if (entry != null) {
-                    filenames.add(entry.getFilename());
+            return directory().toArray();
+       
+    }
+
+
+    //The filenames as an immutable snapshot. CREATE and DELETE only drop the current snapshot,
+    //so they stay O(1) however large the directory is; the next listing rebuilds it once, and
+    //every listing after that is one volatile read until the directory changes again.
+    public DirectorySnapshot directory() {
+        DirectorySnapshot snapshot = directory;
+        if (snapshot != null) return snapshot;
+
+        metaRead.lock();
+        try {
+            //Published under the read lock, so a CREATE or DELETE cannot run between building and
+            //publishing and end up hidden behind this snapshot
+            snapshot = directory;
+            if (snapshot == null){
+                snapshot = new DirectorySnapshot(list_filenames());
+                directory = snapshot;
+            }
+            return snapshot;
+        } finally {
+            metaRead.unlock();
+        }
+    }
+
+
+    //Copies the image at from, in whatever layout it has, into a new image at to formatted with
+    //layout. File slots and block size stay the same; blocks are added if the new metadata takes
+    //more room than the old, so everything that fitted before still fits.
+    public static void migrate(String from, String to, Layout layout) throws Exception {
+        if (new File(from).length() == 0) throw new IOException("No image at " + from);
+        if (new File(to).length() > 0) throw new IOException(to + " already exists");
+
+        FileSystemManager source = new FileSystemManager(from, Geometry.LEGACY, Layout.CHAINED, StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+        try {
+            int blocks = source.MAXBLOCKS;
+            int datablocks = source.MAXBLOCKS - source.metadatablocks;
+            while (blocks - Geometry.metadataBlocks(source.MAXFILES, blocks, source.BLOCK_SIZE) < datablocks) blocks++;
+
+            FileSystemManager target = new FileSystemManager(to, new Geometry(source.MAXFILES, blocks, source.BLOCK_SIZE),
+                    layout, StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+            try {
+                for (String name : source.listFiles()){
+                    target.createFile(name);
+                    target.writeFile(name, source.readFile(name));
                 }
+            } finally {
+                target.close();
             }
-            return filenames.toArray(new String[0]);
-       
+        } finally {
+            source.close();
+        }
     }
 
 
     private void ini_empty_filesystem_OD() throws IOException { //OD => on disk
         for (int i=0; i<MAXFILES; i++){
             inodeTable[i] = null;
-            write_empty_FEntry_OD(i);
+            write_FEntry_OD(i);
         }
 
         for (int i=0; i < MAXBLOCKS; i++){
             if (i < metadatablocks){
-                fnodeBlockIndex[i] = (short) i;
+                fnodeBlockIndex[i] = i;
                 fnodeNext[i] = -1;
-                freeblocklist[i] = false;
             }
 
             else{
-                fnodeBlockIndex[i] = (short) -i;
+                fnodeBlockIndex[i] = -i;
                 fnodeNext[i] = -1;
-                freeblocklist[i] = true;
+                freeblocks.free(i);
             }
             write_FNode_OD(i);
         }
+        flush_metadata_OD();
     }
 
 
     private void load_metadata_FD() throws IOException { //FD => from disk
         for (int i=0; i<MAXFILES; i++){
             inodeTable[i] = read_FEntry_FD(i);
+            if (inodeTable[i] != null) fileindex.put(inodeTable[i].getFilename(), i);
+        }
+        if (layout == Layout.EXTENT){
+            load_extents_FD();
+            return;
         }
 
         for (int i=0; i<MAXBLOCKS; i++) {
             long pos = nodeoffset + (long) i * FNode_size;
-            disk.seek(pos);
-            short blockindex = disk.readShort();
-            short nextblock = disk.readShort();
+            int blockindex = read_field_FD(pos);
+            int nextblock = read_field_FD(pos + FNode_size / 2);
             fnodeBlockIndex[i] = blockindex;
             fnodeNext[i] = nextblock;
 
             boolean free = (blockindex < 0);
-            freeblocklist[i] = free && (i >= metadatablocks);
+            if (free && i >= metadatablocks) freeblocks.free(i);
         }
     }
 
 
-    private void write_FEntry_OD(int index, FEntry entry) throws IOException {
-        long pos = entryoffset + (long) index * FEntry_size;
-        disk.seek(pos);
-        byte[] name_byte = new byte[11];
-        if(entry != null && entry.getFilename() != null){
-            byte[] raw = entry.getFilename().getBytes(StandardCharsets.US_ASCII);
-            int len = Math.min(raw.length, 11);
-            System.arraycopy(raw, 0, name_byte, 0, len);
+    //Extent images only keep FNodes for the first block of each run, so the free map comes from
+    //walking every file's runs: all data blocks start free and the runs are taken out of it.
+    private void load_extents_FD() throws IOException {
+        for (int i = metadatablocks; i < MAXBLOCKS; i++) freeblocks.free(i);
+
+        for (FEntry entry : inodeTable){
+            if (entry == null) continue;
+            long blocks = 0;
+            for (int current = entry.getFirstBlock(); current >= 0; ){
+                long pos = nodeoffset + (long) current * FNode_size;
+                int length = (current < metadatablocks || current >= MAXBLOCKS) ? 0 : read_field_FD(pos);
+                blocks += length;
+                if (length < 1 || length > MAXBLOCKS - current || blocks > MAXBLOCKS){
+                    disk.close();
+                    throw new IOException("Corrupt extent list for " + entry.getFilename());
+                }
+                fnodeBlockIndex[current] = length;
+                fnodeNext[current] = read_field_FD(pos + FNode_size / 2);
+                for (int b = current; b < current + length; b++) freeblocks.markUsed(b);
+                current = fnodeNext[current];
+            }
         }
-
-        disk.write(name_byte);
-        short filesize = (entry==null) ? 0 : entry.getFilesize();
-        short firstblock = (entry==null) ? -1 : entry.getFirstBlock();
-        disk.writeShort(filesize);
-        disk.writeShort(firstblock);
     }
 
 
+    //FEntry and FNode writes only mark the record; flush_metadata_OD writes what inodeTable and
+    //the FNode arrays hold once the operation's changes are all made
+    private void write_FEntry_OD(int index) {
+        dirtyentries.mark(index);
+    }
 
-    private void write_empty_FEntry_OD(int index) throws IOException {
-        long pos = entryoffset + (long) index * FEntry_size;
-        disk.seek(pos);
-        disk.write (new byte[11]); //for name
-        disk.writeShort(0);
-        disk.writeShort((short) -1);
 
+    private void encode_FEntry(int index, byte[] dst, int offset) {
+        FEntry entry = inodeTable[index];
+        Arrays.fill(dst, offset, offset + 11, (byte) 0);
+        if(entry != null && entry.getFilename() != null){
+            byte[] raw = entry.getFilename().getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(raw, 0, dst, offset, Math.min(raw.length, 11));
+        }
+        int filesize = (entry==null) ? 0 : entry.getFilesize();
+        int firstblock = (entry==null) ? -1 : entry.getFirstBlock();
+        encode_field(filesize, dst, offset + 11);
+        encode_field(firstblock, dst, offset + 11 + (FEntry_size - 11) / 2);
     }
 
 
     private FEntry read_FEntry_FD(int index) throws IOException {
         long pos = entryoffset + (long) index * FEntry_size;
-        disk.seek(pos);
         byte[] name_byte = new byte[11];
-        disk.readFully(name_byte);
-        short filesize = disk.readShort();
-        short firstblock = disk.readShort();
+        disk.read(pos, name_byte, 0, 11);
+        int filesize = read_field_FD(pos + 11);
+        int firstblock = read_field_FD(pos + 11 + (FEntry_size - 11) / 2);
         int namelen = 0;
         while (namelen < 11 && name_byte[namelen] != 0) { //make sure name is not already in use
             namelen++;
@@ -322,35 +830,238 @@ public class FileSystemManager {
     }
 
 
-    private void write_FNode_OD(int index) throws IOException {
-        long pos = nodeoffset + (long) index * FNode_size;
-        disk.seek(pos);
-        disk.writeShort(fnodeBlockIndex[index]);
-        disk.writeShort(fnodeNext[index]);
+    //Legacy images store FEntry and FNode numbers as 2-byte fields, formatted images as 4-byte ones
+    private int read_field_FD(long pos) throws IOException {
+        return legacy ? disk.readShort(pos) : disk.readInt(pos);
+    }
+
+
+    //Big-endian, in the width read_field_FD reads
+    private void encode_field(int value, byte[] dst, int offset) {
+        if (legacy) {
+            dst[offset] = (byte) (value >>> 8);
+            dst[offset + 1] = (byte) value;
+        }
+        else {
+            dst[offset] = (byte) (value >>> 24);
+            dst[offset + 1] = (byte) (value >>> 16);
+            dst[offset + 2] = (byte) (value >>> 8);
+            dst[offset + 3] = (byte) value;
+        }
+    }
+
+
+    //Metadata writes go to the open journal record when there is a journal, else to the image
+    private void write_meta_OD(long pos, byte[] bytes, int length) throws IOException {
+        if (journal != null) journal.write(pos, bytes, 0, length);
+        else disk.write(pos, bytes, 0, length);
+    }
+
+
+    private interface RecordEncoder {
+        void encode(int index, byte[] dst, int offset);
+    }
+
+
+    //Writes every record marked since the last flush, one write per run of adjacent records: an
+    //operation's FEntry is one write and the FNodes of each run of its blocks another, however
+    //many blocks the run holds. Caller holds metaWrite.
+    private void flush_metadata_OD() throws IOException {
+        flush_records_OD(dirtyentries, entryoffset, FEntry_size, this::encode_FEntry);
+        flush_records_OD(dirtynodes, nodeoffset, FNode_size, this::encode_FNode);
+    }
+
+
+    private void flush_records_OD(DirtyIndexes dirty, long offset, int size, RecordEncoder encoder) throws IOException {
+        int start = dirty.nextRun(0);
+        while (start != -1){
+            int end = dirty.runEnd(start);
+            for (int from = start; from < end; ){
+                int count = Math.min(end - from, metabuffer.length / size);
+                for (int i = 0; i < count; i++) encoder.encode(from + i, metabuffer, i * size);
+                write_meta_OD(offset + (long) from * size, metabuffer, count * size);
+                from += count;
+            }
+            start = dirty.nextRun(end);
+        }
+        dirty.clear();
+    }
+
+
+    private Geometry read_superblock_FD(long currentsize) throws IOException {
+        if (currentsize < SUPERBLOCK_SIZE) return Geometry.LEGACY;
+        byte[] magic = new byte[MAGIC.length];
+        disk.read(0, magic, 0, MAGIC.length);
+        if (!Arrays.equals(magic, MAGIC)) return Geometry.LEGACY;
+
+        int version = disk.readInt(8);
+        if (version != VERSION) {
+            disk.close();
+            throw new IOException("Unsupported image version " + version);
+        }
+        try { //Geometry turns down sizes whose metadata would not fit int offsets
+            return new Geometry(disk.readInt(16), disk.readInt(20), disk.readInt(12));
+        } catch (IllegalArgumentException e) {
+            disk.close();
+            throw new IOException("Corrupt superblock: " + e.getMessage());
+        }
+    }
+
+
+    //Images formatted before layouts existed have a zero here, which reads as CHAINED
+    private Layout read_layout_FD() throws IOException {
+        int code = disk.readInt(24);
+        if (code < 0 || code >= Layout.values().length) {
+            disk.close();
+            throw new IOException("Unsupported layout " + code);
+        }
+        return Layout.values()[code];
+    }
+
+
+    private void write_superblock_OD() throws IOException { //magic goes last, once the metadata is in place
+        disk.writeInt(8, VERSION);
+        disk.writeInt(12, BLOCK_SIZE);
+        disk.writeInt(16, MAXFILES);
+        disk.writeInt(20, MAXBLOCKS);
+        disk.writeInt(24, layout.ordinal());
+        disk.write(0, MAGIC, 0, MAGIC.length);
     }
 
 
+    private void write_FNode_OD(int index) {
+        dirtynodes.mark(index);
+    }
+
+
+    private void encode_FNode(int index, byte[] dst, int offset) {
+        encode_field(fnodeBlockIndex[index], dst, offset);
+        encode_field(fnodeNext[index], dst, offset + FNode_size / 2);
+    }
+
+
+    //length may run on into the following blocks; the last block written is padded with zeroes
+    //from the shared zero buffer, gathered into the same write as the data
     private void write_data_block (int index_block, byte[] src, int offset, int length) throws IOException {
         long pos = (long) index_block * BLOCK_SIZE;
-        disk.seek(pos);
-        disk.write(src, offset, length);
-        if (length < BLOCK_SIZE) {
-            disk.write (new byte[BLOCK_SIZE - length]);
+        int tail = length % BLOCK_SIZE;
+        if (length != 0 && tail == 0) {
+            disk.write(pos, src, offset, length);
+        } else {
+            disk.write(pos, new ByteBuffer[]{ByteBuffer.wrap(src, offset, length), ByteBuffer.wrap(zeros, 0, BLOCK_SIZE - tail)});
         }
+        BlockCache blocks = cache;
+        if (blocks != null) blocks.written(index_block, src, offset, length);
     }
 
 
+    //length may run on into the following blocks
     private void read_data_block (int index_block, byte[] dst, int offset, int length) throws IOException {
-        long pos = (long) index_block * BLOCK_SIZE;
-        disk.seek(pos);
-        disk.readFully(dst, offset, length);
+        read_data_bytes((long) index_block * BLOCK_SIZE, dst, offset, length);
     }
 
 
-    private void empty_data_block (int index_block) throws IOException { //erases the contents of the data block and changes it to zeroes
+    //Reads length bytes from image position pos on, through the block cache when there is one
+    private void read_data_bytes (long pos, byte[] dst, int offset, int length) throws IOException {
+        BlockCache blocks = cache;
+        if (blocks == null) disk.read(pos, dst, offset, length);
+        else blocks.read(disk, pos, dst, offset, length);
+    }
+
+
+    private void empty_data_blocks (int index_block, int count) throws IOException { //erases a run of adjacent blocks to zeroes
         long pos = (long) index_block * BLOCK_SIZE;
-        disk.seek(pos);
-        disk.write(new byte[BLOCK_SIZE]);
+        long remaining = (long) count * BLOCK_SIZE;
+        while (remaining > 0) {
+            int n = (int) Math.min(zeros.length, remaining);
+            disk.write(pos, zeros, 0, n);
+            pos += n;
+            remaining -= n;
+        }
+    }
+
+
+
+    //Ends the metadata changes of an operation, under metaWrite: the records it marked are
+    //written, and with a journal they become one journal record. Returns what commit_OD waits for.
+    private long seal_OD() throws IOException {
+        flush_metadata_OD();
+        return (journal == null) ? 0 : journal.seal();
+    }
+
+
+    private void commit_OD(long sequence, Durability requested) throws IOException { //end of a mutating operation, outside metaLock
+        Durability mode = (requested == null) ? durability : requested;
+        switch (mode) {
+            case SYNC -> {
+                if (journal != null) journal.awaitDurable(sequence);
+                else disk.force();
+            }
+            case BATCHED -> {
+                if (journal != null) journal.append();
+                batch_flusher().changed();
+            }
+            case ASYNC -> {
+                if (journal != null) {
+                    journal.append(); //in the journal file at once, so only a power loss can lose it
+                    if (journal.backlog() > JOURNAL_BACKLOG) batch_flusher().changed();
+                }
+            }
+        }
+    }
+
+
+    private synchronized BlockScrubber block_scrubber() {
+        if (scrubber == null){
+            scrubber = new BlockScrubber("scrub-" + new File(imagename).getName(), this::settle_unlinks,
+                    this::empty_data_blocks, this::reclaim_blocks, zerofreed);
+        }
+        return scrubber;
+    }
+
+
+    //A background flush that failed is reported to the next change, before that change is applied
+    private void check_flush() throws IOException {
+        BatchFlusher batch = flusher;
+        if (batch != null) batch.check();
+    }
+
+
+    //One force covers every change of a batch: a group commit of the journal, or of the image
+    private synchronized BatchFlusher batch_flusher() {
+        if (flusher == null){
+            BatchFlusher.Flush flush = (journal != null) ? journal::commitAll : disk::force;
+            flusher = new BatchFlusher("flush-" + new File(imagename).getName(), flush, batchmillis, batchops);
+        }
+        return flusher;
+    }
+
+
+
+    //The buffered data goes out in runs of adjacent blocks, one write per run
+    private void flush_upload_tail(UploadSession upload) throws Exception {
+        int blocksneeded = (upload.tailLength + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        await_reclaim(blocksneeded);
+        Extents runs = new Extents();
+        metaWrite.lock();
+        try {
+            if (blocksneeded > freeblocks.freeCount()) throw new Exception("No free blocks available");
+            while (runs.blocks() < blocksneeded){ //reserved in memory only until commit
+                long run = freeblocks.allocateRun(blocksneeded - runs.blocks());
+                runs.add((int) (run >>> 32), (int) run);
+            }
+        } finally {
+            metaWrite.unlock();
+        }
+
+        int offset = 0;
+        for (int i = 0; i < runs.count(); i++){
+            int towrite = Math.min(runs.length(i) * BLOCK_SIZE, upload.tailLength - offset);
+            write_data_block(runs.start(i), upload.tail, offset, towrite);
+            offset += towrite;
+            upload.runs.add(runs.start(i), runs.length(i));
+        }
+        upload.tailLength = 0;
     }
 
 
@@ -368,65 +1079,183 @@ public class FileSystemManager {
 
 
 
-    private int find_file_index (String name){
-        for (int i=0; i<MAXFILES; i++){
-            if (inodeTable[i] != null && inodeTable[i].getFilename().equals(name)) return i;
+    private String[] list_filenames(){
+        List<String> filenames = new ArrayList<>();
+        for (FEntry entry : inodeTable) {
+            if (entry != null) {
+                filenames.add(entry.getFilename());
+            }
         }
+        return filenames.toArray(new String[0]);
+    }
 
-        return -1;
+
+
+    private ReentrantReadWriteLock stripe(String filename){
+        return fileLocks[FileIndex.hash(filename) & (FILE_LOCK_STRIPES - 1)];
+    }
+
+
+
+    private int find_file_index (String name){
+        return (name == null) ? -1 : fileindex.find(name);
     }
 
 
 
     private int free_FEntry_index(){
-        for (int i=0; i < MAXFILES; i++){
-            if (inodeTable[i] == null) return i;
+        for (int i=freeentryhint; i < MAXFILES; i++){
+            if (inodeTable[i] == null) {
+                freeentryhint = i;
+                return i;
+            }
         }
+        freeentryhint = MAXFILES;
         return -1;
     }
 
 
 
-    private List<Integer> get_block_chain(FEntry entry){
-        List<Integer> chain = new ArrayList<>();
-        if (entry == null) return chain;
+    //Runs of the file in inodeTable[index], resolved once and kept until the file is written or
+    //deleted. Readers fill the cache under metaLock's read lock (never optimistically), so two
+    //of them may resolve the same file at once; they build equal Extents and either one may
+    //stay. Cached Extents are never modified.
+    private Extents file_extents(int index){
+        Extents extents = extentcache.get(index);
+        if (extents == null){
+            extents = get_extents(inodeTable[index]);
+            extentcache.set(index, extents);
+        }
+        return extents;
+    }
+
+
+
+    //A file's blocks as runs; for a chained file, adjacent blocks of the chain are merged.
+    private Extents get_extents(FEntry entry){
+        Extents extents = new Extents();
+        if (entry == null) return extents;
 
-        int current = entry.getFirstBlock();
-        while (current >= 0 && current < MAXBLOCKS){
-            chain.add(current);
-            int next = fnodeNext[current];
-            if (next == current) break;
+        if (layout == Layout.EXTENT){
+            for (int current = entry.getFirstBlock(); current >= 0 && current < MAXBLOCKS; current = fnodeNext[current]){
+                extents.add(current, fnodeBlockIndex[current]);
+            }
+        }
+        else{
+            int current = entry.getFirstBlock();
+            while (current >= 0 && current < MAXBLOCKS){
+                extents.add(current, 1);
+                int next = fnodeNext[current];
+                if (next == current) break;
 
-            current = next;
+                current = next;
+            }
         }
-        return chain;
+        return extents;
     }
 
 
 
+    //Writes the FNodes that make extents the blocks of a file: one header per run in the extent
+    //layout, one link per block in the chained one.
+    private void link_blocks_OD(Extents extents) throws IOException {
+        if (layout == Layout.EXTENT){
+            for (int i = 0; i < extents.count(); i++){
+                int start = extents.start(i);
+                fnodeBlockIndex[start] = extents.length(i);
+                fnodeNext[start] = (i == extents.count() - 1) ? -1 : extents.start(i + 1);
+                write_FNode_OD(start);
+            }
+            return;
+        }
+        int[] chain = extents.toBlocks();
+        for (int i = 0; i < chain.length; i++){
+            int index_node = chain[i];
+            fnodeBlockIndex[index_node] = index_node;
+            fnodeNext[index_node] = (i == chain.length - 1) ? -1 : chain[i + 1];
+            write_FNode_OD(index_node);
+        }
+    }
 
 
 
-}
+    //Takes blocks away from a file; caller holds metaWrite. A chained file also clears each
+    //FNode; the run headers of an extent file stop being reachable with its FEntry. The blocks
+    //reach the free map through the scrubber.
+    private void release_file_blocks_OD(Extents extents) throws IOException {
+        if (layout == Layout.CHAINED){
+            for (int i = 0; i < extents.count(); i++){
+                for (int index_node = extents.start(i); index_node < extents.start(i) + extents.length(i); index_node++){
+                    if (index_node < metadatablocks) continue;
+                    fnodeBlockIndex[index_node] = -index_node;
+                    fnodeNext[index_node] = -1;
+                    write_FNode_OD(index_node);
+                }
+            }
+        }
+        block_scrubber().add(extents);
+    }
 
-        
-//test
 
 
+    //Before freed blocks are wiped or reused, the changes that unlinked them reach the device:
+    //the journal is committed, or with ON_WRITE the image forced. Until then a crash could bring
+    //back a file that still points at them. ON_CLOSE promises nothing across a power loss.
+    //Blocks are queued under metaWrite before the operation seals its record, so taking metaRead
+    //first waits for that seal.
+    private void settle_unlinks() throws IOException {
+        metaRead.lock();
+        metaRead.unlock();
+        if (journal != null) journal.commitAll();
+        else if (forcePolicy == ForcePolicy.ON_WRITE) disk.force();
+    }
 
- /*       if(instance == null) {
-            //TODO Initialize the file system
-        } else {
-            throw new IllegalStateException("FileSystemManager is already initialized.");
-        }
 
+    //Scrubbed blocks go back to the free map, once settle_unlinks made their unlinking durable.
+    //They leave the block cache first, so their next owner never reads what they held before.
+    private void reclaim_blocks(Extents extents) throws IOException {
+        BlockCache blocks = cache;
+        if (blocks != null) {
+            for (int i = 0; i < extents.count(); i++) blocks.invalidate(extents.start(i), extents.length(i));
+        }
+        metaWrite.lock();
+        try {
+            for (int i = 0; i < extents.count(); i++){
+                for (int index_node = extents.start(i); index_node < extents.start(i) + extents.length(i); index_node++){
+                    if (index_node >= metadatablocks) freeblocks.free(index_node);
+                }
+            }
+        } finally {
+            metaWrite.unlock();
+        }
     }
 
-    public void createFile(String fileName) throws Exception {
-        // TODO
-        throw new UnsupportedOperationException("Method not implemented yet.");
+
+
+    //The scrubber if it holds blocks not yet back in the free map, else null
+    private BlockScrubber reclaim_pending() {
+        BlockScrubber pending;
+        synchronized (this) {
+            pending = scrubber;
+        }
+        return (pending == null || pending.pending() == 0) ? null : pending;
     }
 
 
-    // TODO: Add readFile, writeFile and other required methods,
-} */
+    //A write that may need blocks the scrubber still holds waits for them rather than failing
+    private void await_reclaim(int blocksneeded) throws IOException {
+        BlockScrubber pending;
+        synchronized (this) {
+            pending = scrubber;
+        }
+        if (blocksneeded == 0 || pending == null || pending.pending() == 0) return;
+        int free;
+        metaRead.lock();
+        try {
+            free = freeblocks.freeCount();
+        } finally {
+            metaRead.unlock();
+        }
+        if (blocksneeded > free) pending.drain();
+    }
+}
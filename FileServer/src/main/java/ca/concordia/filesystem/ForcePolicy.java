@@ -0,0 +1,34 @@
+package ca.concordia.filesystem;
+
+/**
+ * When {@link FileSystemManager} forces its writes to the storage device.
+ *
+ * ON_CLOSE leaves write-back to the operating system until {@link FileSystemManager#close()},
+ * which is what the server always did: a process crash loses nothing, a power loss can lose
+ * recent operations. ON_WRITE forces the image at the end of every operation that changed it,
+ * so a successful reply means the change is on the device. JOURNAL makes the same promise and
+ * also keeps the image consistent across a crash: each operation's metadata goes through a
+ * write-ahead journal, replayed at the next mount, and operations that finish together share
+ * one force instead of paying for one each.
+ *
+ * The policy also sets the default {@link Durability}: ASYNC for ON_CLOSE, SYNC for the others.
+ * {@link FileSystemManager#setDurability} changes it, and each operation may ask for its own.
+ * With JOURNAL, ASYNC and BATCHED changes still go to the journal file before the reply, so a
+ * process crash loses none of them either; only the force and the copy into the image wait.
+ */
+public enum ForcePolicy {
+    ON_CLOSE,
+    ON_WRITE,
+    JOURNAL;
+
+    public static ForcePolicy parse(String value) {
+        if (value == null || value.isBlank()) {
+            return ON_CLOSE;
+        }
+        try {
+            return ForcePolicy.valueOf(value.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown force policy '" + value + "' (expected on_close, on_write or journal)");
+        }
+    }
+}
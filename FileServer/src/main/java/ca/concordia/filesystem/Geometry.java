@@ -0,0 +1,103 @@
+package ca.concordia.filesystem;
+
+/**
+ * Shape of a filesystem image: how many files it can hold, how many blocks it has and how big
+ * a block is. Chosen when an image is formatted and stored in its superblock; an existing image
+ * always opens with the geometry it was formatted with.
+ */
+public final class Geometry {
+
+    public static final int DEFAULT_BLOCK_SIZE = 128;
+
+    /** The fixed shape of images written before the superblock existed. */
+    public static final Geometry LEGACY = new Geometry(5, 10, 128);
+
+    //Bytes FileSystemManager puts before the data blocks: a superblock, then an FEntry per file
+    //slot and an FNode per block. Images without a superblock had narrower FEntries and FNodes.
+    private static final int SUPERBLOCK_BYTES = 64;
+    private static final int FENTRY_BYTES = 19;
+    private static final int FNODE_BYTES = 8;
+    private static final int LEGACY_FENTRY_BYTES = 15;
+    private static final int LEGACY_FNODE_BYTES = 4;
+
+    private final int maxFiles;
+    private final int maxBlocks;
+    private final int blockSize;
+
+    public Geometry(int maxFiles, int maxBlocks, int blockSize) {
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("An image needs at least one file slot.");
+        }
+        if (maxBlocks < 1) {
+            throw new IllegalArgumentException("An image needs at least one block.");
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive.");
+        }
+        //FileSystemManager addresses the metadata with int offsets
+        if (SUPERBLOCK_BYTES + (long) maxFiles * FENTRY_BYTES + (long) maxBlocks * FNODE_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many file slots and blocks for one image's metadata.");
+        }
+        this.maxFiles = maxFiles;
+        this.maxBlocks = maxBlocks;
+        this.blockSize = blockSize;
+    }
+
+    /** Splits totalSize bytes into default-sized blocks, with one file slot per two blocks. */
+    public static Geometry forSize(long totalSize) {
+        return forSize(totalSize, DEFAULT_BLOCK_SIZE, 0);
+    }
+
+    /**
+     * Splits totalSize bytes into blocks; maxFiles 0 means one file slot per two blocks. Blocks
+     * are added for the superblock and the wider FEntries and FNodes, so the image holds as many
+     * data blocks as totalSize gave before images had a superblock: 10*128 still leaves 9.
+     */
+    public static Geometry forSize(long totalSize, int blockSize, int maxFiles) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive.");
+        }
+        long blocks = totalSize / blockSize;
+        if (blocks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many blocks for one image; use a bigger block size.");
+        }
+        int files = maxFiles > 0 ? maxFiles : (int) Math.max(1, blocks / 2);
+        long datablocks = blocks - (LEGACY_FENTRY_BYTES * (long) files + LEGACY_FNODE_BYTES * blocks + blockSize - 1) / blockSize;
+        long maxBlocks = blocks;
+        if (blockSize > FNODE_BYTES) { //smaller blocks lose a whole block to every FNode added
+            while (maxBlocks - metadataBlocks(files, maxBlocks, blockSize) < datablocks) {
+                maxBlocks += datablocks - (maxBlocks - metadataBlocks(files, maxBlocks, blockSize));
+            }
+        }
+        if (maxBlocks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many blocks for one image; use a bigger block size.");
+        }
+        return new Geometry(files, (int) maxBlocks, blockSize);
+    }
+
+    /** Blocks an image formatted now spends on its superblock, FEntries and FNodes. */
+    static long metadataBlocks(int files, long blocks, int blockSize) {
+        return (SUPERBLOCK_BYTES + (long) files * FENTRY_BYTES + blocks * FNODE_BYTES + blockSize - 1) / blockSize;
+    }
+
+    public int getMaxFiles() {
+        return maxFiles;
+    }
+
+    public int getMaxBlocks() {
+        return maxBlocks;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public long getTotalSize() {
+        return (long) maxBlocks * blockSize;
+    }
+
+    @Override
+    public String toString() {
+        return maxFiles + " files, " + maxBlocks + " blocks of " + blockSize + " bytes";
+    }
+}
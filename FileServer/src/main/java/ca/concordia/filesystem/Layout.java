@@ -0,0 +1,27 @@
+package ca.concordia.filesystem;
+
+/**
+ * How an image records which blocks belong to a file. Chosen when the image is formatted and
+ * stored in its superblock.
+ *
+ * CHAINED links every block to the next one through its FNode, so reaching block n of a file
+ * walks n links. EXTENT describes a file as a short list of (start, length) runs of adjacent
+ * blocks: the FNode of a run's first block holds the run length and the start of the next run,
+ * blocks inside a run have no FNode of their own, and a large file is read or written with one
+ * I/O per run. Images formatted before layouts existed are CHAINED.
+ */
+public enum Layout {
+    CHAINED,
+    EXTENT;
+
+    public static Layout parse(String value) {
+        if (value == null || value.isBlank()) {
+            return CHAINED;
+        }
+        try {
+            return Layout.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown layout '" + value + "' (expected chained or extent)");
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package ca.concordia.filesystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Backend that maps the whole image into memory with FileChannel.map, so metadata and block
+ * accesses are plain memory reads and writes instead of a seek plus a syscall each. The image
+ * is mapped in 1 GiB segments because a single mapping cannot exceed 2 GiB. Only absolute
+ * get/put calls are used, so concurrent readers never share a buffer position.
+ *
+ * Writes reach the page cache immediately, which is also where the channel used for
+ * transferTo reads from; they only reach the device on {@link #force()} or when the kernel
+ * writes dirty pages back on its own.
+ */
+final class MappedDiskImage implements DiskImage {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer[] segments;
+    private long length;
+
+    MappedDiskImage(String filename) throws IOException {
+        this.file = new RandomAccessFile(filename, "rw");
+        this.channel = file.getChannel();
+        map();
+    }
+
+    private void map() throws IOException {
+        length = channel.size();
+        int count = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_SIZE, length - start));
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void ensureLength(long length) throws IOException {
+        if (this.length < length) {
+            file.setLength(length);
+            map();
+        }
+    }
+
+    @Override
+    public void read(long position, byte[] dst, int offset, int length) throws IOException {
+        check(position, length);
+        while (length > 0) {
+            MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+            int index = (int) (position & (SEGMENT_SIZE - 1));
+            int n = Math.min(length, segment.capacity() - index);
+            segment.get(index, dst, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public void read(long position, ByteBuffer[] dsts) throws IOException {
+        for (ByteBuffer dst : dsts) {
+            int n = dst.remaining();
+            if (dst.hasArray()) {
+                read(position, dst.array(), dst.arrayOffset() + dst.position(), n);
+                dst.position(dst.limit());
+            } else {
+                byte[] bytes = new byte[n];
+                read(position, bytes, 0, n);
+                dst.put(bytes);
+            }
+            position += n;
+        }
+    }
+
+    @Override
+    public void write(long position, byte[] src, int offset, int length) throws IOException {
+        check(position, length);
+        while (length > 0) {
+            MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+            int index = (int) (position & (SEGMENT_SIZE - 1));
+            int n = Math.min(length, segment.capacity() - index);
+            segment.put(index, src, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public void write(long position, ByteBuffer[] srcs) throws IOException {
+        for (ByteBuffer src : srcs) {
+            int n = src.remaining();
+            if (src.hasArray()) {
+                write(position, src.array(), src.arrayOffset() + src.position(), n);
+                src.position(src.limit());
+            } else {
+                byte[] bytes = new byte[n];
+                src.get(bytes);
+                write(position, bytes, 0, n);
+            }
+            position += n;
+        }
+    }
+
+    @Override
+    public short readShort(long position) throws IOException {
+        check(position, 2);
+        if (withinSegment(position, 2)) {
+            return segments[(int) (position >>> SEGMENT_SHIFT)].getShort((int) (position & (SEGMENT_SIZE - 1)));
+        }
+        return (short) readStraddling(position, 2);
+    }
+
+    @Override
+    public void writeShort(long position, short value) throws IOException {
+        check(position, 2);
+        if (withinSegment(position, 2)) {
+            segments[(int) (position >>> SEGMENT_SHIFT)].putShort((int) (position & (SEGMENT_SIZE - 1)), value);
+            return;
+        }
+        writeStraddling(position, value, 2);
+    }
+
+    @Override
+    public int readInt(long position) throws IOException {
+        check(position, 4);
+        if (withinSegment(position, 4)) {
+            return segments[(int) (position >>> SEGMENT_SHIFT)].getInt((int) (position & (SEGMENT_SIZE - 1)));
+        }
+        return readStraddling(position, 4);
+    }
+
+    @Override
+    public void writeInt(long position, int value) throws IOException {
+        check(position, 4);
+        if (withinSegment(position, 4)) {
+            segments[(int) (position >>> SEGMENT_SHIFT)].putInt((int) (position & (SEGMENT_SIZE - 1)), value);
+            return;
+        }
+        writeStraddling(position, value, 4);
+    }
+
+    private static boolean withinSegment(long position, int count) {
+        return (position & (SEGMENT_SIZE - 1)) <= SEGMENT_SIZE - count;
+    }
+
+    // Big-endian value of count bytes that cross a segment boundary
+    private int readStraddling(long position, int count) throws IOException {
+        byte[] bytes = new byte[count];
+        read(position, bytes, 0, count);
+        int value = bytes[0]; // sign-extended, so a short comes back negative when it should
+        for (int i = 1; i < count; i++) {
+            value = (value << 8) | (bytes[i] & 0xff);
+        }
+        return value;
+    }
+
+    private void writeStraddling(long position, int value, int count) throws IOException {
+        byte[] bytes = new byte[count];
+        for (int i = count - 1; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>= 8;
+        }
+        write(position, bytes, 0, count);
+    }
+
+    @Override
+    public FileChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close(); // the mapping itself stays valid until the buffers are collected
+    }
+
+    private void check(long position, int count) throws EOFException {
+        if (position < 0 || position + count > length) {
+            throw new EOFException("Access past the end of the image at " + position);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package ca.concordia.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead journal for the metadata of one image, kept next to it as {@code <image>.journal}.
+ *
+ * The FEntry and FNode writes of an operation are collected into one record instead of going
+ * to the image. A record reaches the image only after it is on the device in the journal, so a
+ * crash leaves each operation's metadata either complete or untouched; the next mount copies
+ * every intact record into the image again ({@link #replay}) before reading the metadata.
+ *
+ * Commits are grouped. The first operation to wait for its record becomes the leader: it takes
+ * every record sealed so far and makes them durable with one force of the image, for the data
+ * blocks those operations wrote, and one of the journal. Operations that seal meanwhile queue
+ * behind the leader and usually find their record already durable once they get the lock.
+ *
+ * An operation that does not wait ({@link #append}) still writes its record to the journal file
+ * at once, without forcing it, so a crash of the process loses nothing it acknowledged; a power
+ * loss before the next commit can. Such a record may reach the device before the data blocks it
+ * points at, so after a power loss a recent change can come back with stale content.
+ *
+ * Record format, big-endian: body length (4) | epoch (8) | sequence (8) | body | CRC32C (4),
+ * where the body is a list of position (8) | length (4) | bytes. The epoch changes with every
+ * open and sequences increase within it, so replay stops at a torn record and also at stale
+ * records left behind a truncate that did not reach the device.
+ */
+final class MetadataJournal {
+
+    private static final int HEADER_SIZE = 20;
+    private static final int CHECKPOINT_BYTES = 4 << 20; //journal size that triggers a checkpoint
+
+    private final DiskImage disk;
+    private final FileChannel channel;
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+
+    //The record being built and the sealed ones; guarded by the filesystem's metadata write lock
+    private byte[] body = new byte[256];
+    private int bodyLength;
+    private long sealed;
+    private final List<byte[]> queue = new ArrayList<>(); //sealed, not yet in the journal file; also its own monitor
+    private long queuedBytes;                              //sealed, not yet durable; guarded by queue
+
+    private final ReentrantLock appendLock = new ReentrantLock(); //never waits for a force, except at a checkpoint
+    private final List<byte[]> unapplied = new ArrayList<>();    //in the journal file, not yet in the image; guarded by appendLock
+    private long appended;          //sequence of the last record in the journal file, guarded by appendLock
+    private long journalLength;     //guarded by appendLock
+
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private volatile long durable; //every record up to this sequence is in the image
+    private long commits;           //forces of the journal, guarded by commitLock
+
+    MetadataJournal(Path path, DiskImage disk) throws IOException {
+        this.disk = disk;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(0);
+    }
+
+    static Path pathFor(String image) {
+        return Path.of(image + ".journal");
+    }
+
+    /**
+     * Copies every intact record of the journal at path into disk, forces it and empties the
+     * journal. Returns the number of records applied; a missing or empty journal applies none.
+     */
+    static int replay(Path path, DiskImage disk) throws IOException {
+        if (!Files.exists(path) || Files.size(path) == 0) return 0;
+
+        ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(path));
+        int records = 0;
+        long epoch = 0;
+        long sequence = 0;
+        while (journal.remaining() >= HEADER_SIZE + 4) {
+            int start = journal.position();
+            int length = journal.getInt(start);
+            if (length < 0 || length > journal.remaining() - HEADER_SIZE - 4) break;
+            long recordEpoch = journal.getLong(start + 4);
+            long recordSequence = journal.getLong(start + 12);
+            if (records > 0 && (recordEpoch != epoch || recordSequence <= sequence)) break;
+
+            CRC32C crc = new CRC32C();
+            crc.update(journal.array(), start, HEADER_SIZE + length);
+            if ((int) crc.getValue() != journal.getInt(start + HEADER_SIZE + length)) break;
+
+            apply(disk, journal.array(), start + HEADER_SIZE, length);
+            epoch = recordEpoch;
+            sequence = recordSequence;
+            records++;
+            journal.position(start + HEADER_SIZE + length + 4);
+        }
+
+        disk.force();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+            channel.force(true);
+        }
+        return records;
+    }
+
+    /** Adds a write of src to the open record. */
+    void write(long position, byte[] src, int offset, int length) {
+        ensure(12 + length);
+        ByteBuffer entry = ByteBuffer.wrap(body, bodyLength, 12);
+        entry.putLong(position).putInt(length);
+        System.arraycopy(src, offset, body, bodyLength + 12, length);
+        bodyLength += 12 + length;
+    }
+
+    /**
+     * Closes the open record and queues it for the next commit. Returns the sequence to pass to
+     * {@link #awaitDurable}; with nothing recorded, the last sealed one.
+     */
+    long seal() {
+        if (bodyLength == 0) return sealed;
+
+        byte[] record = new byte[HEADER_SIZE + bodyLength + 4];
+        ByteBuffer.wrap(record).putInt(bodyLength).putLong(epoch).putLong(sealed + 1);
+        System.arraycopy(body, 0, record, HEADER_SIZE, bodyLength);
+        CRC32C crc = new CRC32C();
+        crc.update(record, 0, HEADER_SIZE + bodyLength);
+        ByteBuffer.wrap(record).putInt(HEADER_SIZE + bodyLength, (int) crc.getValue());
+        bodyLength = 0;
+
+        synchronized (queue) {
+            queue.add(record);
+            queuedBytes += record.length;
+            sealed++;
+        }
+        return sealed;
+    }
+
+    /**
+     * Writes every record sealed so far to the journal file without forcing it, for operations
+     * that do not wait for a commit: from then on only a power loss can take them.
+     */
+    void append() throws IOException {
+        long last;
+        synchronized (queue) {
+            last = sealed;
+        }
+        appendLock.lock();
+        try {
+            writeOut(last);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /** Returns once the record with this sequence, and every one before it, is in the image. */
+    void awaitDurable(long sequence) throws IOException {
+        if (durable >= sequence) return;
+
+        commitLock.lock();
+        try {
+            if (durable >= sequence) return;
+
+            long last;
+            synchronized (queue) {
+                last = sealed;
+            }
+            disk.force(); //the data blocks of the records up to last go first
+
+            byte[][] batch;
+            appendLock.lock();
+            try {
+                writeOut(last);
+                batch = unapplied.subList(0, (int) (last - durable)).toArray(new byte[0][]);
+            } finally {
+                appendLock.unlock();
+            }
+            channel.force(false);
+            commits++;
+            long bytes = 0;
+            for (byte[] record : batch) {
+                apply(disk, record, HEADER_SIZE, record.length - HEADER_SIZE - 4);
+                bytes += record.length;
+            }
+            boolean full;
+            appendLock.lock();
+            try {
+                unapplied.subList(0, batch.length).clear(); //kept until now so a failed commit is retried
+                full = journalLength >= CHECKPOINT_BYTES;
+            } finally {
+                appendLock.unlock();
+            }
+            synchronized (queue) {
+                queuedBytes -= bytes;
+            }
+            durable = last;
+
+            if (full) checkpoint();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /** Forces of the journal so far; each one made a whole group of records durable. */
+    long commits() {
+        commitLock.lock();
+        try {
+            return commits;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /** Returns once every record sealed so far is in the image. */
+    void commitAll() throws IOException {
+        long last;
+        synchronized (queue) {
+            last = sealed;
+        }
+        awaitDurable(last);
+    }
+
+    /** Bytes of sealed records still waiting for a commit. */
+    long backlog() {
+        synchronized (queue) {
+            return queuedBytes;
+        }
+    }
+
+    /** Commits whatever is still queued, empties the journal and closes it. */
+    void close() throws IOException {
+        commitAll();
+        commitLock.lock();
+        try {
+            checkpoint();
+            channel.close();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    //Writes the records after the last one in the journal file, up to sequence upTo, behind it;
+    //under appendLock. Until they are written they stay queued, so a failed write is retried.
+    private void writeOut(long upTo) throws IOException {
+        int count = (int) Math.max(0, upTo - appended);
+        if (count == 0) return;
+        byte[][] batch;
+        synchronized (queue) {
+            batch = queue.subList(0, count).toArray(new byte[0][]);
+        }
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            buffers[i] = ByteBuffer.wrap(batch[i]);
+            bytes += batch[i].length;
+        }
+        channel.position(journalLength);
+        while (bytes > 0) bytes -= channel.write(buffers);
+        for (byte[] record : batch) {
+            journalLength += record.length;
+            unapplied.add(record);
+        }
+        synchronized (queue) {
+            queue.subList(0, count).clear();
+        }
+        appended = upTo;
+    }
+
+    //Once every record in the journal file is in the image and the image is on the device, the
+    //journal can start over. Records appended since the last commit go to the image here too:
+    //their data blocks were written before they were sealed, so the same force covers them.
+    //Caller holds commitLock.
+    private void checkpoint() throws IOException {
+        appendLock.lock();
+        try {
+            long bytes = 0;
+            for (byte[] record : unapplied) {
+                apply(disk, record, HEADER_SIZE, record.length - HEADER_SIZE - 4);
+                bytes += record.length;
+            }
+            disk.force();
+            channel.truncate(0);
+            channel.force(true);
+            journalLength = 0;
+            unapplied.clear();
+            synchronized (queue) {
+                queuedBytes -= bytes;
+            }
+            durable = appended;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private static void apply(DiskImage disk, byte[] record, int offset, int length) throws IOException {
+        ByteBuffer entries = ByteBuffer.wrap(record, offset, length);
+        while (entries.hasRemaining()) {
+            long position = entries.getLong();
+            int n = entries.getInt();
+            disk.write(position, record, entries.position(), n);
+            entries.position(entries.position() + n);
+        }
+    }
+
+    private void ensure(int extra) {
+        if (bodyLength + extra > body.length) {
+            body = Arrays.copyOf(body, Math.max(body.length * 2, bodyLength + extra));
+        }
+    }
+}
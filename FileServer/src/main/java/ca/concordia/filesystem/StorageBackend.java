@@ -0,0 +1,31 @@
+package ca.concordia.filesystem;
+
+import java.io.IOException;
+
+/**
+ * How {@link FileSystemManager} reaches the image file. FILE seeks and reads or writes through a
+ * RandomAccessFile; MAPPED maps the image with FileChannel.map and works on memory. Both use the
+ * same on-disk layout, so an image written by one opens with the other.
+ */
+public enum StorageBackend {
+    FILE,
+    MAPPED;
+
+    DiskImage open(String filename) throws IOException {
+        return switch (this) {
+            case FILE -> new FileDiskImage(filename);
+            case MAPPED -> new MappedDiskImage(filename);
+        };
+    }
+
+    public static StorageBackend parse(String value) {
+        if (value == null || value.isBlank()) {
+            return FILE;
+        }
+        try {
+            return StorageBackend.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown storage backend '" + value + "' (expected file or mapped)");
+        }
+    }
+}
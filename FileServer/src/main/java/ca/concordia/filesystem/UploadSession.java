@@ -0,0 +1,36 @@
+package ca.concordia.filesystem;
+
+/**
+ * A chunked upload in progress (see {@link FileSystemManager#beginUpload}).
+ *
+ * Data is collected in a buffer of up to 64KB and written to disk whenever it fills, in runs of
+ * adjacent blocks that are only reserved in memory; the file keeps its old content until commit
+ * links the new chain and swaps the FEntry. Memory per upload is the buffer plus two ints per
+ * reserved run.
+ */
+public class UploadSession {
+
+    final String filename;
+    final byte[] tail;
+    int tailLength;
+    int size;
+    final Extents runs = new Extents();
+    boolean closed;
+
+    UploadSession(String filename, int bufferSize) {
+        this.filename = filename;
+        this.tail = new byte[bufferSize];
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
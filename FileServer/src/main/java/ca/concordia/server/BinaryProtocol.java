@@ -0,0 +1,286 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.DirectorySnapshot;
+import ca.concordia.filesystem.Durability;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.UploadSession;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Length-prefixed binary framing, negotiated per connection.
+ *
+ * A client starts in the text protocol and sends the line {@code BINARY}; after the
+ * {@link #HANDSHAKE_RESPONSE} line every message in both directions is a frame:
+ *
+ * <pre>
+ *   request:  opcode (1) | name length (2) | payload length (4) | name (ASCII) | payload
+ *   response: status (1) | payload length (4) | payload
+ * </pre>
+ *
+ * All integers are big-endian. Payloads are raw bytes, so WRITE and READ carry any content,
+ * newlines and NULs included. Error responses carry the message as UTF-8; LIST returns the
+ * file names separated by '\n'. Like {@link CommandProcessor}, an instance belongs to one
+ * connection because it holds that connection's chunked upload.
+ */
+public class BinaryProtocol {
+
+    public static final String HANDSHAKE = "BINARY";
+    public static final String HANDSHAKE_RESPONSE = "SUCCESS: Switching to binary protocol.";
+    private static final long HANDSHAKE_KEY = CommandLine.key(HANDSHAKE);
+
+    public static final byte OP_CREATE = 1;
+    public static final byte OP_WRITE = 2;
+    public static final byte OP_READ = 3;
+    public static final byte OP_DELETE = 4;
+    public static final byte OP_LIST = 5;
+    public static final byte OP_QUIT = 6;
+    public static final byte OP_STATS = 7;
+    public static final byte OP_BEGIN = 8;  // start a chunked upload to name
+    public static final byte OP_CHUNK = 9;  // append payload to the upload
+    public static final byte OP_COMMIT = 10;
+    public static final byte OP_ABORT = 11;
+    public static final byte OP_DURABILITY = 12; // name is async, batched, sync or default
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    public static final int REQUEST_HEADER_SIZE = 7;
+    public static final int RESPONSE_HEADER_SIZE = 5;
+    public static final int MAX_NAME_LENGTH = 255;
+    public static final int MAX_PAYLOAD_LENGTH = 16 << 20;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    // OP_LIST payload for one directory snapshot, kept on the snapshot and shared by every connection
+    private static final Function<DirectorySnapshot, byte[]> LIST_PAYLOAD =
+            directory -> String.join("\n", directory.toArray()).getBytes(StandardCharsets.US_ASCII);
+
+    public record Request(byte opcode, String name, byte[] payload) {}
+
+    public record Response(byte status, byte[] payload, boolean disconnect) {
+        static Response ok(byte[] payload) {
+            return new Response(STATUS_OK, payload, false);
+        }
+
+        static Response error(String message) {
+            return new Response(STATUS_ERROR, String.valueOf(message).getBytes(StandardCharsets.UTF_8), false);
+        }
+    }
+
+    private final FileSystemManager fsManager;
+    private final ServerStats stats;
+    private UploadSession upload;
+    private Durability durability; // for this connection's changes; null uses the server's
+
+    public BinaryProtocol(FileSystemManager fsManager, ServerStats stats) {
+        this.fsManager = fsManager;
+        this.stats = stats;
+    }
+
+    /** Same first-word test as {@link CommandProcessor}, so both agree on when to switch. */
+    public static boolean isHandshake(CommandLine command) {
+        return command.key() == HANDSHAKE_KEY;
+    }
+
+    public Response execute(Request request) {
+        try {
+            switch (request.opcode()) {
+                case OP_CREATE:
+                    fsManager.lockWrite(request.name());
+                    try {
+                        fsManager.createFile(request.name(), durability);
+                        return Response.ok(EMPTY);
+                    } finally {
+                        fsManager.unlockWrite(request.name());
+                    }
+                case OP_WRITE:
+                    fsManager.lockWrite(request.name());
+                    try {
+                        fsManager.writeFile(request.name(), request.payload(), durability);
+                        return Response.ok(EMPTY);
+                    } finally {
+                        fsManager.unlockWrite(request.name());
+                    }
+                case OP_READ:
+                    fsManager.lockRead(request.name());
+                    try {
+                        return Response.ok(fsManager.readFile(request.name()));
+                    } finally {
+                        fsManager.unlockRead(request.name());
+                    }
+                case OP_DELETE:
+                    fsManager.lockWrite(request.name());
+                    try {
+                        fsManager.deleteFile(request.name(), durability);
+                        return Response.ok(EMPTY);
+                    } finally {
+                        fsManager.unlockWrite(request.name());
+                    }
+                case OP_LIST:
+                    return Response.ok(listPayload());
+                case OP_BEGIN:
+                    if (upload != null) {
+                        return Response.error("Upload already in progress.");
+                    }
+                    upload = fsManager.beginUpload(request.name());
+                    return Response.ok(EMPTY);
+                case OP_CHUNK:
+                    if (upload == null) {
+                        return Response.error("No upload in progress.");
+                    }
+                    fsManager.appendUpload(upload, request.payload(), 0, request.payload().length);
+                    return Response.ok(EMPTY);
+                case OP_COMMIT:
+                    if (upload == null) {
+                        return Response.error("No upload in progress.");
+                    }
+                    String target = upload.getFilename();
+                    fsManager.lockWrite(target);
+                    try {
+                        fsManager.commitUpload(upload, durability);
+                        return Response.ok(EMPTY);
+                    } finally {
+                        if (upload.isClosed()) upload = null;
+                        fsManager.unlockWrite(target);
+                    }
+                case OP_ABORT:
+                    if (upload == null) {
+                        return Response.error("No upload in progress.");
+                    }
+                    fsManager.abortUpload(upload);
+                    upload = null;
+                    return Response.ok(EMPTY);
+                case OP_DURABILITY:
+                    durability = request.name().equalsIgnoreCase("default") ? null : Durability.parse(request.name());
+                    return Response.ok(EMPTY);
+                case OP_STATS:
+                    return Response.ok(stats.summary(fsManager).getBytes(StandardCharsets.US_ASCII));
+                case OP_QUIT:
+                    return new Response(STATUS_OK, EMPTY, true);
+                default:
+                    return Response.error("Unknown opcode " + request.opcode());
+            }
+        } catch (Exception e) {
+            return Response.error(e.getMessage());
+        }
+    }
+
+    // OP_LIST payload, encoded once per directory snapshot like the text LIST response
+    private byte[] listPayload() {
+        return fsManager.directory().derived(LIST_PAYLOAD);
+    }
+
+    /** Releases the blocks of an upload the client never committed. */
+    public void close() {
+        if (upload == null) {
+            return;
+        }
+        try {
+            fsManager.abortUpload(upload);
+        } catch (IOException e) {
+            ServerLog.error("Could not release upload", e);
+        } finally {
+            upload = null;
+        }
+    }
+
+    /**
+     * OP_READ for engines that own a blocking socket channel: the header goes through out,
+     * the payload is transferred from the disk image straight to the socket.
+     */
+    public void streamRead(String filename, OutputStream out, WritableByteChannel channel) throws IOException {
+        fsManager.lockRead(filename);
+        try {
+            int size;
+            try {
+                size = fsManager.getFileSize(filename);
+            } catch (Exception e) {
+                writeResponse(out, Response.error(e.getMessage()));
+                return;
+            }
+            out.write(encodeHeader(STATUS_OK, size));
+            out.flush();
+            fsManager.transferFile(filename, channel);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            fsManager.unlockRead(filename);
+        }
+    }
+
+    /** Blocking read of one frame; null if the stream ends cleanly between frames. */
+    public static Request readRequest(DataInputStream in) throws IOException {
+        int opcode = in.read();
+        if (opcode == -1) {
+            return null;
+        }
+        int nameLength = in.readUnsignedShort();
+        int payloadLength = in.readInt();
+        checkLengths(nameLength, payloadLength);
+        byte[] name = new byte[nameLength];
+        in.readFully(name);
+        byte[] payload = new byte[payloadLength];
+        in.readFully(payload);
+        return new Request((byte) opcode, new String(name, StandardCharsets.US_ASCII), payload);
+    }
+
+    /**
+     * Size of the frame starting at the buffer's position, or -1 if not even the header is
+     * there yet. Does not move the position.
+     */
+    public static int frameLength(ByteBuffer in) throws ProtocolException {
+        if (in.remaining() < REQUEST_HEADER_SIZE) {
+            return -1;
+        }
+        int nameLength = Short.toUnsignedInt(in.getShort(in.position() + 1));
+        int payloadLength = in.getInt(in.position() + 3);
+        checkLengths(nameLength, payloadLength);
+        return REQUEST_HEADER_SIZE + nameLength + payloadLength;
+    }
+
+    /** Consumes one complete frame; the caller checks {@link #frameLength} first. */
+    public static Request parseRequest(ByteBuffer in) {
+        byte opcode = in.get();
+        int nameLength = Short.toUnsignedInt(in.getShort());
+        int payloadLength = in.getInt();
+        byte[] name = new byte[nameLength];
+        in.get(name);
+        byte[] payload = new byte[payloadLength];
+        in.get(payload);
+        return new Request(opcode, new String(name, StandardCharsets.US_ASCII), payload);
+    }
+
+    public static void writeResponse(OutputStream out, Response response) throws IOException {
+        out.write(encodeHeader(response.status(), response.payload().length));
+        out.write(response.payload());
+    }
+
+    public static ByteBuffer[] encodeResponse(Response response) {
+        return new ByteBuffer[]{ByteBuffer.wrap(encodeHeader(response.status(), response.payload().length)),
+                ByteBuffer.wrap(response.payload())};
+    }
+
+    private static byte[] encodeHeader(byte status, int length) {
+        return new byte[]{status,
+                (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length};
+    }
+
+    private static void checkLengths(int nameLength, int payloadLength) throws ProtocolException {
+        if (nameLength > MAX_NAME_LENGTH) {
+            throw new ProtocolException("Filename length " + nameLength + " exceeds " + MAX_NAME_LENGTH);
+        }
+        if (payloadLength < 0 || payloadLength > MAX_PAYLOAD_LENGTH) {
+            throw new ProtocolException("Payload length " + payloadLength + " exceeds " + MAX_PAYLOAD_LENGTH);
+        }
+    }
+}
@@ -1,123 +1,105 @@
 package ca.concordia.server;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import ca.concordia.filesystem.FileSystemManager;
 
 public class ClientHandler implements Runnable {
+    // Responses are flushed once the client's pipelined commands are all read, or after this many bytes
+    static final int FLUSH_THRESHOLD = 16 * 1024;
+    private static final int LINE_TOO_LONG = -2;
+    private static final byte[] BUSY_LINE = "ERROR: BUSY\n".getBytes(StandardCharsets.UTF_8);
+
     private final Socket clientSocket;
-    private final FileSystemManager fsManager;
-    
+    private final SocketChannel channel; // null for sockets not accepted through a channel
+    private final CommandProcessor processor;
+    private final BinaryProtocol binaryProtocol;
+    private final RequestGate gate; // null admits every request
+    private final CommandLine command = new CommandLine();
+    private byte[] lineBuffer = new byte[256];
+
     public ClientHandler(Socket clientSocket, FileSystemManager fsManager) {
+        this(clientSocket, fsManager, new ServerStats());
+    }
+
+    public ClientHandler(Socket clientSocket, FileSystemManager fsManager, ServerStats stats) {
+        this(clientSocket, fsManager, stats, null);
+    }
+
+    public ClientHandler(Socket clientSocket, FileSystemManager fsManager, ServerStats stats, RequestGate gate) {
         this.clientSocket = clientSocket;
-        this.fsManager = fsManager;
+        this.gate = gate;
+        this.channel = clientSocket.getChannel();
+        this.processor = new CommandProcessor(fsManager, stats);
+        this.binaryProtocol = new BinaryProtocol(fsManager, stats);
     }
 
     @Override
     public void run() {
-        System.out.println("Handling client in thread: " + Thread.currentThread().getName());
+        ServerLog.debug("Handling client ", clientSocket.getRemoteSocketAddress());
 
+    // Raw byte streams rather than Reader/Writer: after a BINARY handshake the same buffered
+    // input continues as frames, so no bytes may be decoded ahead of time.
     try (
-        BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true)
+        LineInput in = new LineInput(clientSocket.getInputStream());
+        BufferedOutputStream out = new BufferedOutputStream(clientSocket.getOutputStream(), FLUSH_THRESHOLD)
     ) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-
-                        System.out.println("Received from client: " + line);
-                        String[] parts = line.trim().split(" ",3);
-                        String command = parts[0].toUpperCase();
-                        try{
-                        switch (command) {
+                    int length;
+                    int unflushed = 0;
+                    while ((length = readLine(in)) != -1) {
+                        if (length == LINE_TOO_LONG) {
+                            // Same reply as the NIO engine; the rest of the line is not worth reading
+                            out.write("ERROR: Line too long.\n".getBytes(StandardCharsets.UTF_8));
+                            out.flush();
+                            return;
+                        }
 
-                            case "CREATE":
-                            if(parts.length < 2) {
-                                writer.println("ERROR: Filename required.");
-                                break;
-                            }   
-                                fsManager.lockWrite();
-                                try {
-                                    fsManager.createFile(parts[1]);
-                                    writer.println("SUCCESS: File '" + parts[1] + "' created.");
-                                    writer.flush();
-                                } finally {
-                                    fsManager.unlockWrite();
-                                }
-                                break;
-                            case "WRITE":
-                            if(parts.length < 3) {
-                                writer.println("ERROR: Filename and content required.");
-                                break;
-                            }   
-                                fsManager.lockWrite();
-                                try {
-                                    fsManager.writeFile(parts[1], parts[2].getBytes());
-                                    writer.println("SUCCESS: Written to file '" + parts[1] + "'.");
-                                    writer.flush();
-                                } finally {
-                                    fsManager.unlockWrite();
-                                }
-                                break;
-                            case "READ":
-                            if(parts.length < 2) {
-                                writer.println("ERROR: Filename required.");
-                                break;
-                            }   
-                                fsManager.lockRead();
-                                try {
-                                    byte[] data = fsManager.readFile(parts[1]);
-                                    writer.println("SUCCESS: Read from file '" + parts[1] + "': " + new String(data));
-                                    writer.flush();
-                                } finally {
-                                    fsManager.unlockRead();
-                                }
-                                break;
-                            case "DELETE":
-                            if(parts.length < 2) {
-                                writer.println("ERROR: Filename required.");
-                                break;
-                            }   
-                                fsManager.lockWrite();
-                                try {
-                                    fsManager.deleteFile(parts[1]);
-                                    writer.println("SUCCESS: File '" + parts[1] + "' deleted.");
-                                    writer.flush();
-                                } finally {
-                                    fsManager.unlockWrite();
+                        command.parse(lineBuffer, length);
+                        ServerLog.command(command);
+                        if (gate != null && !gate.enter()) {
+                            out.write(BUSY_LINE);
+                            unflushed += BUSY_LINE.length;
+                        } else {
+                            String response;
+                            try {
+                                response = serveLine(out);
+                            } finally {
+                                if (gate != null) {
+                                    gate.exit();
                                 }
-                                break;
-                            case "LIST":
-                                fsManager.lockRead();
-                                try {
-                                    String[] files = fsManager.listFiles();
-                                    StringBuilder response = new StringBuilder("SUCCESS: Files:");
-                                    for (String file : files) {
-                                        response.append(" ").append(file);
-                                    }
-                                    writer.println(response.toString());
-                                    writer.flush();
-                                } finally {
-                                    fsManager.unlockRead();
-                                }
-                                break;
-                            
-                            case "QUIT":
-                                writer.println("SUCCESS: Disconnecting.");
+                            }
+                            if (CommandProcessor.DISCONNECT.equals(response)) {
+                                out.flush();
+                                return;
+                            }
+                            if (BinaryProtocol.HANDSHAKE_RESPONSE.equals(response)) {
+                                out.flush();
+                                serveBinary(in, out);
                                 return;
-                            default:
-                                writer.println("ERROR: Unknown command.");
-                                break;
+                            }
+                            unflushed += (response != null) ? response.length() + 1 : length;
                         }
-                        } catch (Exception e) {
-                            writer.println("ERROR: " + e.getMessage());
+                        // Keep batching while more pipelined commands are already buffered
+                        if (unflushed >= FLUSH_THRESHOLD || in.available() == 0) {
+                            out.flush();
+                            unflushed = 0;
                         }
                     }
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    ServerLog.error("Client connection failed", e);
                 } finally {
+                    processor.close();
+                    binaryProtocol.close();
                     try {
                         clientSocket.close();
                     } catch (Exception e) {
@@ -125,4 +107,134 @@ public class ClientHandler implements Runnable {
                     }
                 }
             }
-        }
\ No newline at end of file
+
+    // Answers the parsed command into out; returns the response line, or null for a READ or
+    // LIST whose bytes went out as they are.
+    private String serveLine(OutputStream out) throws IOException {
+        String readTarget = (channel != null) ? CommandProcessor.readTarget(command) : null;
+        if (readTarget != null) {
+            // Zero-copy: file content goes from the image to the socket directly
+            processor.streamRead(readTarget, out, channel);
+            return null;
+        }
+        if (CommandProcessor.isList(command)) {
+            // Pre-encoded once per directory change
+            out.write(processor.listResponse());
+            return null;
+        }
+        String response = processor.execute(command);
+        out.write((response + "\n").getBytes(StandardCharsets.UTF_8));
+        return response;
+    }
+
+    private void serveBinary(InputStream in, OutputStream out) throws IOException {
+        DataInputStream frames = new DataInputStream(in);
+        BinaryProtocol.Request request;
+        while (true) {
+            try {
+                request = BinaryProtocol.readRequest(frames);
+            } catch (ProtocolException e) {
+                // A frame over the limits: say why, as the NIO engine does, and hang up
+                BinaryProtocol.writeResponse(out, new BinaryProtocol.Response(
+                        BinaryProtocol.STATUS_ERROR, e.getMessage().getBytes(StandardCharsets.UTF_8), true));
+                out.flush();
+                return;
+            }
+            if (request == null) {
+                return;
+            }
+            if (gate != null && !gate.enter()) {
+                BinaryProtocol.writeResponse(out, BinaryProtocol.Response.error("BUSY"));
+                if (in.available() == 0) {
+                    out.flush();
+                }
+                continue;
+            }
+            BinaryProtocol.Response response;
+            try {
+                if (request.opcode() == BinaryProtocol.OP_READ && channel != null) {
+                    binaryProtocol.streamRead(request.name(), out, channel);
+                    response = null;
+                } else {
+                    response = binaryProtocol.execute(request);
+                    BinaryProtocol.writeResponse(out, response);
+                }
+            } finally {
+                if (gate != null) {
+                    gate.exit();
+                }
+            }
+            if (response == null) {
+                if (in.available() == 0) {
+                    out.flush();
+                }
+                continue;
+            }
+            if (response.disconnect() || in.available() == 0) {
+                out.flush();
+            }
+            if (response.disconnect()) {
+                return;
+            }
+        }
+    }
+
+    // Reads one '\n'-terminated line into lineBuffer (a trailing '\r' is dropped) and returns
+    // its length, -1 at end of stream, or LINE_TOO_LONG once it reaches the NIO engine's limit.
+    private int readLine(LineInput in) throws IOException {
+        int length = 0;
+        while (true) {
+            if (length == lineBuffer.length) {
+                if (length >= NioFileServer.MAX_LINE_LENGTH) {
+                    return LINE_TOO_LONG;
+                }
+                lineBuffer = Arrays.copyOf(lineBuffer, Math.min(length * 2, NioFileServer.MAX_LINE_LENGTH));
+            }
+            int n = in.readLineChunk(lineBuffer, length, lineBuffer.length - length);
+            if (n == -1) {
+                if (length == 0) {
+                    return -1;
+                }
+                break;
+            }
+            length += n;
+            if (lineBuffer[length - 1] == '\n') {
+                length--;
+                break;
+            }
+        }
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        return length;
+    }
+
+    // The connection's buffered input, which readLine scans in bulk rather than with one
+    // read() call per byte. Only the connection's own thread uses it.
+    private static final class LineInput extends BufferedInputStream {
+        LineInput(InputStream in) {
+            super(in);
+        }
+
+        // Moves the buffered bytes up to and including the next '\n', at most max of them, to
+        // dst from offset on, filling the buffer first if it is empty. Returns how many were
+        // moved, or -1 at end of stream.
+        int readLineChunk(byte[] dst, int offset, int max) throws IOException {
+            if (pos >= count) {
+                if (read() == -1) {
+                    return -1;
+                }
+                pos--; // read() filled the buffer; its first byte stays there for the scan
+            }
+            int end = Math.min(count, pos + max);
+            int i = pos;
+            while (i < end && buf[i] != '\n') {
+                i++;
+            }
+            int n = (i < end) ? i + 1 - pos : end - pos;
+            System.arraycopy(buf, pos, dst, offset, n);
+            pos += n;
+            return n;
+        }
+    }
+        }
@@ -0,0 +1,128 @@
+package ca.concordia.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * One line of the text protocol, tokenized in place over a byte array the connection reuses.
+ *
+ * Parsing only records offsets: the trimmed line, the command word, the first argument (the
+ * filename) and the rest of the line, split on single spaces exactly like
+ * {@code line.trim().split(" ", 3)}. The command word is packed into a long so a
+ * {@link CommandTable} can find its handler without building a String. Strings and byte arrays
+ * are only created when a handler asks for its arguments. Not thread-safe; one per connection.
+ */
+public final class CommandLine {
+
+    private byte[] bytes = new byte[0];
+    private int length;
+    private int start;          // trimmed line is [start, end)
+    private int end;
+    private int commandEnd;     // command word is [start, commandEnd)
+    private int nameEnd = -1;   // first argument is [commandEnd + 1, nameEnd), -1 if absent
+    private int restStart = -1; // the rest is [restStart, end), -1 if absent
+    private long key;
+
+    /** Tokenizes bytes[0, length); the array must not change until the command has run. */
+    public CommandLine parse(byte[] bytes, int length) {
+        this.bytes = bytes;
+        this.length = length;
+        int from = 0;
+        int to = length;
+        // Same as String.trim(): drop everything up to and including ' ' on both ends
+        while (from < to && (bytes[from] & 0xff) <= ' ') from++;
+        while (to > from && (bytes[to - 1] & 0xff) <= ' ') to--;
+        start = from;
+        end = to;
+
+        commandEnd = indexOfSpace(start, end);
+        nameEnd = -1;
+        restStart = -1;
+        if (commandEnd < end) {
+            nameEnd = indexOfSpace(commandEnd + 1, end);
+            if (nameEnd < end) {
+                restStart = nameEnd + 1;
+            }
+        }
+        key = key(bytes, start, commandEnd);
+        return this;
+    }
+
+    /** Packed command word for {@link CommandTable} lookups, 0 if it cannot be a command. */
+    public long key() {
+        return key;
+    }
+
+    /** Number of arguments after the command word: 0, 1 (filename) or 2 (filename and rest). */
+    public int argumentCount() {
+        return restStart >= 0 ? 2 : nameEnd >= 0 ? 1 : 0;
+    }
+
+    public String name() {
+        return nameEnd < 0 ? null : new String(bytes, commandEnd + 1, nameEnd - commandEnd - 1, StandardCharsets.UTF_8);
+    }
+
+    /** Everything after the filename, as raw bytes. */
+    public byte[] rest() {
+        return restStart < 0 ? null : Arrays.copyOfRange(bytes, restStart, end);
+    }
+
+    /**
+     * Everything after the first space of the line with only leading whitespace removed, so
+     * spaces inside and at the end of the data are kept (CHUNK).
+     */
+    public byte[] data() {
+        int from = 0;
+        while (from < length && isWhitespace(bytes[from])) from++;
+        int space = indexOfSpace(from, length);
+        return space >= length ? new byte[0] : Arrays.copyOfRange(bytes, space + 1, length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /** Packs a command word the same way {@link #parse} does. */
+    public static long key(String word) {
+        byte[] encoded = word.getBytes(StandardCharsets.UTF_8);
+        return key(encoded, 0, encoded.length);
+    }
+
+    // Up to 8 printable ASCII bytes, letters upper-cased, one byte each; 0 for anything else
+    private static long key(byte[] bytes, int from, int to) {
+        if (to - from < 1 || to - from > 8) {
+            return 0;
+        }
+        long key = 0;
+        for (int i = from; i < to; i++) {
+            int b = bytes[i];
+            if (b <= ' ' || b == 0x7f) {
+                return 0;
+            }
+            if (b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            }
+            key = (key << 8) | b;
+        }
+        return key;
+    }
+
+    private int indexOfSpace(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == ' ') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    // Character.isWhitespace() for the ASCII range, as used by String.stripLeading()
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || (b >= 0x09 && b <= 0x0d) || (b >= 0x1c && b <= 0x1f);
+    }
+}
@@ -0,0 +1,264 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.DirectorySnapshot;
+import ca.concordia.filesystem.Durability;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.UploadSession;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Executes one line of the text protocol against the filesystem and returns the response line.
+ * Commands are parsed into a {@link CommandLine} and dispatched through a {@link CommandTable}.
+ * Used by the blocking {@link ClientHandler} and the {@link NioFileServer} workers so both
+ * engines answer byte-for-byte the same. One instance per connection: it holds the
+ * connection's chunked upload, if any, and {@link #close()} must be called when the
+ * connection ends.
+ */
+public class CommandProcessor {
+
+    public static final String DISCONNECT = "SUCCESS: Disconnecting.";
+
+    // Adding a text command means adding a handler here
+    private static final CommandTable COMMANDS = new CommandTable()
+            .add("CREATE", CommandProcessor::create)
+            .add("WRITE", CommandProcessor::write)
+            .add("READ", CommandProcessor::read)
+            .add("DELETE", CommandProcessor::delete)
+            .add("LIST", CommandProcessor::list)
+            .add("BEGIN", CommandProcessor::begin)
+            .add("CHUNK", CommandProcessor::chunk)
+            .add("COMMIT", CommandProcessor::commit)
+            .add("ABORT", CommandProcessor::abort)
+            .add("DURABLE", CommandProcessor::durability)
+            .add("STATS", (processor, command) -> "SUCCESS: Stats: " + processor.stats.summary(processor.fsManager))
+            // The engine switches the connection to frames right after this line
+            .add(BinaryProtocol.HANDSHAKE, (processor, command) -> BinaryProtocol.HANDSHAKE_RESPONSE)
+            .add("QUIT", (processor, command) -> DISCONNECT);
+
+    private static final long READ = CommandLine.key("READ");
+    private static final long LIST = CommandLine.key("LIST");
+
+    // LIST response for one directory snapshot, kept on the snapshot and shared by every connection
+    private record EncodedList(String text, byte[] line) {}
+    private static final Function<DirectorySnapshot, EncodedList> ENCODE_LIST = directory -> {
+        StringBuilder response = new StringBuilder("SUCCESS: Files:");
+        for (int i = 0; i < directory.size(); i++) {
+            response.append(" ").append(directory.name(i));
+        }
+        String text = response.toString();
+        return new EncodedList(text, (text + "\n").getBytes(StandardCharsets.UTF_8));
+    };
+
+    private final FileSystemManager fsManager;
+    private final ServerStats stats;
+    private final CommandLine scratch = new CommandLine();
+    private UploadSession upload;
+    private Durability durability; // for this connection's changes; null uses the server's
+
+    public CommandProcessor(FileSystemManager fsManager, ServerStats stats) {
+        this.fsManager = fsManager;
+        this.stats = stats;
+    }
+
+    public String execute(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return execute(scratch.parse(bytes, bytes.length));
+    }
+
+    public String execute(CommandLine command) {
+        CommandTable.Handler handler = COMMANDS.lookup(command);
+        if (handler == null) {
+            return "ERROR: Unknown command.";
+        }
+        try {
+            return handler.handle(this, command);
+        } catch (Exception e) {
+            return "ERROR: " + e.getMessage();
+        }
+    }
+
+    private String create(CommandLine command) throws Exception {
+        if (command.argumentCount() < 1) {
+            return "ERROR: Filename required.";
+        }
+        String filename = command.name();
+        fsManager.lockWrite(filename);
+        try {
+            fsManager.createFile(filename, durability);
+            return "SUCCESS: File '" + filename + "' created.";
+        } finally {
+            fsManager.unlockWrite(filename);
+        }
+    }
+
+    private String write(CommandLine command) throws Exception {
+        if (command.argumentCount() < 2) {
+            return "ERROR: Filename and content required.";
+        }
+        String filename = command.name();
+        byte[] content = command.rest();
+        fsManager.lockWrite(filename);
+        try {
+            fsManager.writeFile(filename, content, durability);
+            return "SUCCESS: Written to file '" + filename + "'.";
+        } finally {
+            fsManager.unlockWrite(filename);
+        }
+    }
+
+    private String read(CommandLine command) throws Exception {
+        if (command.argumentCount() < 1) {
+            return "ERROR: Filename required.";
+        }
+        String filename = command.name();
+        fsManager.lockRead(filename);
+        try {
+            byte[] data = fsManager.readFile(filename);
+            return "SUCCESS: Read from file '" + filename + "': " + new String(data);
+        } finally {
+            fsManager.unlockRead(filename);
+        }
+    }
+
+    private String delete(CommandLine command) throws Exception {
+        if (command.argumentCount() < 1) {
+            return "ERROR: Filename required.";
+        }
+        String filename = command.name();
+        fsManager.lockWrite(filename);
+        try {
+            fsManager.deleteFile(filename, durability);
+            return "SUCCESS: File '" + filename + "' deleted.";
+        } finally {
+            fsManager.unlockWrite(filename);
+        }
+    }
+
+    private String list(CommandLine command) {
+        return encodedList().text();
+    }
+
+    // Encodes LIST once per directory snapshot; until the next CREATE or DELETE every LIST
+    // reuses the same response
+    private EncodedList encodedList() {
+        return fsManager.directory().derived(ENCODE_LIST);
+    }
+
+    // DURABLE async|batched|sync applies to this connection's changes from the next command
+    // on; DURABLE default goes back to the server's
+    private String durability(CommandLine command) {
+        if (command.argumentCount() < 1) {
+            return "ERROR: Durability required (async, batched, sync or default).";
+        }
+        String mode = command.name();
+        durability = mode.equalsIgnoreCase("default") ? null : Durability.parse(mode);
+        String effective = (durability == null ? fsManager.getDurability() : durability).name().toLowerCase();
+        return "SUCCESS: Durability set to " + effective + ".";
+    }
+
+    private String begin(CommandLine command) throws Exception {
+        if (command.argumentCount() < 1) {
+            return "ERROR: Filename required.";
+        }
+        if (upload != null) {
+            return "ERROR: Upload already in progress.";
+        }
+        String filename = command.name();
+        upload = fsManager.beginUpload(filename);
+        return "SUCCESS: Upload to file '" + filename + "' started.";
+    }
+
+    private String chunk(CommandLine command) throws Exception {
+        if (upload == null) {
+            return "ERROR: No upload in progress.";
+        }
+        // Everything after "CHUNK " is data, spaces included
+        byte[] chunk = command.data();
+        fsManager.appendUpload(upload, chunk, 0, chunk.length);
+        return "SUCCESS: Received " + chunk.length + " bytes for '" + upload.getFilename() + "'.";
+    }
+
+    private String commit(CommandLine command) throws Exception {
+        if (upload == null) {
+            return "ERROR: No upload in progress.";
+        }
+        String filename = upload.getFilename();
+        fsManager.lockWrite(filename);
+        try {
+            fsManager.commitUpload(upload, durability);
+            return "SUCCESS: Written to file '" + filename + "'.";
+        } finally {
+            if (upload.isClosed()) upload = null;
+            fsManager.unlockWrite(filename);
+        }
+    }
+
+    private String abort(CommandLine command) throws Exception {
+        if (upload == null) {
+            return "ERROR: No upload in progress.";
+        }
+        fsManager.abortUpload(upload);
+        upload = null;
+        return "SUCCESS: Upload aborted.";
+    }
+
+    /** Releases the blocks of an upload the client never committed. */
+    public void close() {
+        if (upload == null) {
+            return;
+        }
+        try {
+            fsManager.abortUpload(upload);
+        } catch (IOException e) {
+            ServerLog.error("Could not release upload", e);
+        } finally {
+            upload = null;
+        }
+    }
+
+    /** Whether command is a LIST, which engines can answer with {@link #listResponse()}. */
+    public static boolean isList(CommandLine command) {
+        return command.key() == LIST;
+    }
+
+    /** The whole LIST response line, newline included. Shared between connections: do not modify. */
+    public byte[] listResponse() {
+        return encodedList().line();
+    }
+
+    /** Filename of a well-formed READ command, or null for any other line. */
+    public static String readTarget(CommandLine command) {
+        return (command.key() == READ && command.argumentCount() >= 1) ? command.name() : null;
+    }
+
+    /**
+     * READ for engines that own a blocking socket channel: the response prefix goes through
+     * out, the file content is transferred from the disk image straight to the socket.
+     */
+    public void streamRead(String filename, OutputStream out, WritableByteChannel channel) throws IOException {
+        fsManager.lockRead(filename);
+        try {
+            try {
+                fsManager.getFileSize(filename);
+            } catch (Exception e) {
+                out.write(("ERROR: " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            out.write(("SUCCESS: Read from file '" + filename + "': ").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            fsManager.transferFile(filename, channel);
+            out.write('\n');
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            fsManager.unlockRead(filename);
+        }
+    }
+}
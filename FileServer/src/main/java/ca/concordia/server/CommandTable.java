@@ -0,0 +1,52 @@
+package ca.concordia.server;
+
+import java.util.Arrays;
+
+/**
+ * Text protocol dispatch table: command word to handler. Lookups compare the packed key of a
+ * parsed {@link CommandLine} against a short array, so finding a handler allocates nothing.
+ * Adding a command is one {@link #add} call in {@link CommandProcessor}.
+ */
+public final class CommandTable {
+
+    @FunctionalInterface
+    public interface Handler {
+        String handle(CommandProcessor processor, CommandLine command) throws Exception;
+    }
+
+    private long[] keys = new long[0];
+    private Handler[] handlers = new Handler[0];
+
+    /** Registers a handler; names are case-insensitive, printable ASCII, at most 8 bytes. */
+    public CommandTable add(String name, Handler handler) {
+        long key = CommandLine.key(name);
+        if (key == 0) {
+            throw new IllegalArgumentException("Invalid command name '" + name + "'");
+        }
+        if (lookup(key) != null) {
+            throw new IllegalArgumentException("Command '" + name + "' already registered");
+        }
+        keys = Arrays.copyOf(keys, keys.length + 1);
+        handlers = Arrays.copyOf(handlers, handlers.length + 1);
+        keys[keys.length - 1] = key;
+        handlers[handlers.length - 1] = handler;
+        return this;
+    }
+
+    /** Handler for the command word of a parsed line, or null if there is none. */
+    public Handler lookup(CommandLine command) {
+        return lookup(command.key());
+    }
+
+    private Handler lookup(long key) {
+        if (key == 0) {
+            return null;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == key) {
+                return handlers[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,45 @@
+package ca.concordia.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How the server runs each accepted {@link ClientHandler}.
+ *
+ * VIRTUAL gives every connection its own virtual thread, so thousands of mostly idle
+ * clients only cost a small heap-allocated stack each. PLATFORM is the fallback: an ordinary
+ * thread per connection, up to maxConnections of them, with poolSize kept alive between
+ * connections. Either way a connection never waits for a thread; what is bounded and queued
+ * is the requests running against the filesystem, by the {@link RequestGate}.
+ */
+public enum ExecutionMode {
+    VIRTUAL,
+    PLATFORM;
+
+    public ExecutorService newExecutor(ServerConfig config) {
+        switch (this) {
+            case VIRTUAL:
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("client-", 0).factory());
+            case PLATFORM:
+            default:
+                return new ThreadPoolExecutor(Math.min(config.getPoolSize(), config.getMaxConnections()),
+                        config.getMaxConnections(), 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                        Thread.ofPlatform().name("client-", 0).factory(),
+                        new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+
+    public static ExecutionMode parse(String value) {
+        if (value == null || value.isBlank()) {
+            return VIRTUAL;
+        }
+        try {
+            return ExecutionMode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown execution mode '" + value + "' (expected virtual or platform)");
+        }
+    }
+}
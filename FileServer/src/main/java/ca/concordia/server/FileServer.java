@@ -1,42 +1,198 @@
 package ca.concordia.server;
 import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.Geometry;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class FileServer {
 
+    static final byte[] BUSY_RESPONSE = "ERROR: BUSY\n".getBytes(StandardCharsets.US_ASCII);
+    // How long stop() lets running requests finish before it closes what is still open
+    static final long STOP_GRACE_SECONDS = 5;
+
     private FileSystemManager fsManager;
     private int port;
-    public FileServer(int port, String fileSystemName, int totalSize) throws IOException {
+    private final ServerConfig config;
+    private final ServerStats stats = new ServerStats();
+    private volatile ServerSocket serverSocket;
+    private volatile NioFileServer nioServer;
+    private volatile ExecutorService executor;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet(); // connections of the blocking engine
+    private volatile boolean stopped;
+
+    public FileServer(int port, String fileSystemName, long totalSize) throws IOException {
+        this(port, fileSystemName, totalSize, new ServerConfig());
+    }
+
+    public FileServer(int port, String fileSystemName, long totalSize, ServerConfig config) throws IOException {
         // Initialize the FileSystemManager
+        // totalSize, block size, file slots and layout only shape a new image; an existing one keeps its own
         FileSystemManager fsManager = new FileSystemManager(fileSystemName,
-                /*10*128*/ totalSize);
+                Geometry.forSize(totalSize, config.getBlockSize(), config.getMaxFiles()),
+                config.getLayout(), config.getStorage(), config.getForcePolicy());
+        if (config.getDurability() != null) {
+            fsManager.setDurability(config.getDurability());
+        }
+        fsManager.setBatchWindow(config.getBatchMillis(), config.getBatchOps());
+        if (config.getCacheBytes() != null) {
+            fsManager.setBlockCacheBytes(config.getCacheBytes());
+        }
         this.fsManager = fsManager;
         this.port = port;
+        this.config = config;
+    }
+
+    public ServerStats getStats() {
+        return stats;
     }
 
     public void start(){
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("Server started. Listening on port "+port+"...");
+        if (config.getEngine() == ServerEngine.NIO) {
+            try {
+                nioServer = new NioFileServer(port, fsManager, config, stats);
+            } catch (IOException e) {
+                ServerLog.error("Could not start server on port " + port, e);
+                return;
+            }
+            if (!stopped) {
+                nioServer.start();
+            }
+            return;
+        }
+
+        ExecutorService executor = config.getMode().newExecutor(config);
+        this.executor = executor;
+        RequestGate gate = new RequestGate(config, stats);
+        // Opened as a channel so every accepted Socket has a SocketChannel for zero-copy READs
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            ServerSocket serverSocket = serverChannel.socket();
+            this.serverSocket = serverSocket;
+            ServerLog.info("Server started. Listening on port "+port+" ("+config.getMode().name().toLowerCase()+" threads)...");
 
 
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("Connected client: " + clientSocket);
+                ServerLog.debug("Connected client: ", clientSocket.getRemoteSocketAddress());
 
-                Thread clientThread = new Thread(new ClientHandler(clientSocket, fsManager));
-                clientThread.start();
-                
+                if (!stats.tryAdmit(config.getMaxConnections())) {
+                    reject(clientSocket);
+                    continue;
+                }
+                ClientHandler handler = new ClientHandler(clientSocket, fsManager, stats, gate);
+                clients.add(clientSocket);
+                try {
+                    executor.execute(() -> {
+                        try {
+                            handler.run();
+                        } finally {
+                            clients.remove(clientSocket);
+                            stats.connectionClosed();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Only when every PLATFORM thread is still finishing a closed connection
+                    clients.remove(clientSocket);
+                    stats.connectionClosed();
+                    reject(clientSocket);
+                }
             }
         } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Could not start server on port " + port);
+            if (stopped) {
+                return; // stop() closed the listening socket
+            }
+            ServerLog.error("Could not start server on port " + port, e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Stops accepting, lets the requests already running finish, then closes the image
+    public void stop() {
+        stopped = true;
+        NioFileServer nio = nioServer;
+        if (nio != null) {
+            nio.stop();
+        }
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        try {
+            if (nio != null && !nio.awaitTermination(STOP_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                ServerLog.warn("Requests were still running when the image was closed");
+            }
+            awaitHandlers();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Under the write lock so no command is halfway through the image
+        fsManager.lockWrite();
+        try {
+            fsManager.close();
+        } catch (IOException e) {
+            ServerLog.error("Could not close the filesystem image", e);
+        } finally {
+            fsManager.unlockWrite();
+        }
+    }
+
+    // Ends the blocking engine's connections once the command each is running has been answered:
+    // with its input shut down a handler reads end of stream and returns. Sockets still open
+    // after the grace period are closed outright.
+    private void awaitHandlers() throws InterruptedException {
+        ExecutorService running = executor;
+        if (running == null) {
+            return;
+        }
+        running.shutdown();
+        for (Socket client : clients) {
+            try {
+                client.shutdownInput();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+        if (running.awaitTermination(STOP_GRACE_SECONDS, TimeUnit.SECONDS)) {
+            return;
+        }
+        for (Socket client : clients) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        if (!running.awaitTermination(STOP_GRACE_SECONDS, TimeUnit.SECONDS)) {
+            ServerLog.warn("Requests were still running when the image was closed");
+        }
+    }
+
+    // Runs on the accept thread, so it must never wait on the client: one small write, then close.
+    private void reject(Socket clientSocket) {
+        stats.rejected();
+        try (clientSocket) {
+            OutputStream out = clientSocket.getOutputStream();
+            out.write(BUSY_RESPONSE);
+            out.flush();
+        } catch (IOException e) {
+            // Client already gone
         }
     }
 
-}
\ No newline at end of file
+}
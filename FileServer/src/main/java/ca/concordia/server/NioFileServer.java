@@ -0,0 +1,494 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.FileSystemManager;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking engine for the text protocol.
+ *
+ * The thread calling {@link #start()} accepts connections and deals them out round-robin to
+ * a few reactor threads. Each reactor owns a {@link Selector}, reads whatever bytes are
+ * available into the connection's buffer and cuts them into lines (or binary frames once the
+ * client has sent the {@link BinaryProtocol} handshake). Complete requests are handed
+ * to a small worker pool, one task per connection at a time so replies stay in order, and the
+ * responses are queued back to the reactor for writing. An idle client therefore costs a
+ * buffer and a selection key, not a thread.
+ */
+public class NioFileServer {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    static final int MAX_LINE_LENGTH = 1 << 20;
+    private static final int MAX_PENDING_REQUESTS = 1024; // stop reading a pipelining client beyond this
+
+    private final int port;
+    private final ServerConfig config;
+    private final ServerStats stats;
+    private final FileSystemManager fsManager;
+    private final Reactor[] reactors;
+    private final ExecutorService workers;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean stopped;
+    private final CountDownLatch finished = new CountDownLatch(1); // start() has returned and the workers are done
+
+    public NioFileServer(int port, FileSystemManager fsManager, ServerConfig config, ServerStats stats) throws IOException {
+        this.port = port;
+        this.config = config;
+        this.stats = stats;
+        this.fsManager = fsManager;
+        this.reactors = new Reactor[config.getReactorThreads()];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(Selector.open());
+        }
+        this.workers = Executors.newFixedThreadPool(config.getWorkerThreads(),
+                Thread.ofPlatform().name("nio-worker-", 0).factory());
+    }
+
+    public void start() {
+        List<Thread> reactorThreads = new ArrayList<>();
+        for (int i = 0; i < reactors.length; i++) {
+            Thread thread = new Thread(reactors[i], "nio-reactor-" + i);
+            thread.start();
+            reactorThreads.add(thread);
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            this.serverChannel = serverChannel;
+            serverChannel.bind(new InetSocketAddress(port));
+            ServerLog.info("Server started. Listening on port "+port+" (nio, "+reactors.length+" reactors)...");
+
+            int next = 0;
+            while (true) {
+                SocketChannel channel = serverChannel.accept(); // the listening channel stays blocking
+                ServerLog.debug("Connected client: ", channel.socket().getRemoteSocketAddress());
+
+                if (!stats.tryAdmit(config.getMaxConnections())) {
+                    stats.rejected();
+                    try (channel) {
+                        channel.write(ByteBuffer.wrap(FileServer.BUSY_RESPONSE));
+                    } catch (IOException e) {
+                        // Client already gone
+                    }
+                    continue;
+                }
+                stats.queued();
+                channel.configureBlocking(false);
+                reactors[next].register(new Connection(channel, reactors[next], System.nanoTime()));
+                next = (next + 1) % reactors.length;
+            }
+        } catch (Exception e) {
+            if (!stopped) {
+                ServerLog.error("Could not start server on port " + port, e);
+            }
+        } finally {
+            stopped = true;
+            for (Reactor reactor : reactors) {
+                reactor.selector.wakeup();
+            }
+            for (Thread thread : reactorThreads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            workers.shutdown();
+            try {
+                workers.awaitTermination(FileServer.STOP_GRACE_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                finished.countDown();
+            }
+        }
+    }
+
+    /** Waits until {@link #start()} has returned and no worker is running a request any more. */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    public void stop() {
+        stopped = true;
+        ServerSocketChannel channel = serverChannel;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private final class Reactor implements Runnable {
+        private final Selector selector;
+        private final Queue<Connection> newConnections = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingFlushes = new ConcurrentLinkedQueue<>();
+
+        Reactor(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(Connection connection) {
+            newConnections.add(connection);
+            selector.wakeup();
+        }
+
+        // Called from worker threads: the reactor does the actual socket write.
+        void flushLater(Connection connection) {
+            pendingFlushes.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stopped) {
+                    selector.select();
+
+                    Connection connection;
+                    while ((connection = newConnections.poll()) != null) {
+                        stats.dequeued(System.nanoTime() - connection.acceptedAt);
+                        try {
+                            connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                        } catch (ClosedChannelException e) {
+                            connection.close();
+                        }
+                    }
+                    while ((connection = pendingFlushes.poll()) != null) {
+                        connection.flush();
+                    }
+
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        connection = (Connection) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                ServerLog.error("Reactor failed", e);
+            } finally {
+                Connection connection;
+                while ((connection = newConnections.poll()) != null) {
+                    connection.close();
+                }
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private final class Connection implements Runnable {
+        private final SocketChannel channel;
+        private final Reactor reactor;
+        private final long acceptedAt;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE); // reactor thread only
+        private boolean binary;                                         // reactor thread only
+        private final CommandLine scan = new CommandLine();             // reactor thread only
+        private volatile boolean closed;                                // set by the reactor only
+        private final AtomicBoolean released = new AtomicBoolean();     // sessions given back
+        private final CommandProcessor processor;      // used by whichever worker runs this connection
+        private final BinaryProtocol binaryProtocol;
+        private final CommandLine command = new CommandLine();
+
+        // Shared between the reactor and the worker running this connection; guarded by this.
+        // Requests are text lines (byte[], copied out of the read buffer the reactor keeps
+        // filling) or, after the handshake, BinaryProtocol.Request frames.
+        private final ArrayDeque<Object> pendingRequests = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> pendingOutput = new ArrayDeque<>();
+        private boolean scheduled;   // a worker is (or will be) draining pendingRequests
+        private boolean inputClosed; // client sent EOF
+        private boolean closing;     // QUIT seen: write what is left, then close
+
+        Connection(SocketChannel channel, Reactor reactor, long acceptedAt) {
+            this.channel = channel;
+            this.reactor = reactor;
+            this.acceptedAt = acceptedAt;
+            this.processor = new CommandProcessor(fsManager, stats);
+            this.binaryProtocol = new BinaryProtocol(fsManager, stats);
+        }
+
+        void onReadable() {
+            int read;
+            try {
+                read = channel.read(in);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+
+            List<Object> requests = new ArrayList<>();
+            if (!parseRequests(requests)) {
+                return;
+            }
+            if (read == -1) {
+                // Like BufferedReader.readLine(), an unterminated last line still counts
+                if (!binary && in.position() > 0) {
+                    requests.add(Arrays.copyOf(in.array(), in.position()));
+                }
+                in.clear();
+                key.interestOps(0);
+            }
+
+            synchronized (this) {
+                if (read == -1) {
+                    inputClosed = true;
+                }
+                if (!closing) {
+                    pendingRequests.addAll(requests);
+                }
+                if (pendingRequests.size() >= MAX_PENDING_REQUESTS) {
+                    key.interestOps(0); // resumed by flush() once the worker catches up
+                }
+                if (!scheduled && !pendingRequests.isEmpty()) {
+                    scheduled = true;
+                    workers.execute(this);
+                    return;
+                }
+            }
+            if (read == -1) {
+                flush(); // nothing left to run; close once output is drained
+            }
+        }
+
+        // Moves every complete request out of the read buffer: text lines until a BINARY
+        // handshake, frames after it. Returns false if the connection had to be closed.
+        private boolean parseRequests(List<Object> requests) {
+            int frameLength = 0;
+            in.flip();
+            try {
+                while (in.hasRemaining()) {
+                    if (binary) {
+                        frameLength = BinaryProtocol.frameLength(in);
+                        if (frameLength < 0 || in.remaining() < frameLength) {
+                            break;
+                        }
+                        requests.add(BinaryProtocol.parseRequest(in));
+                    } else {
+                        byte[] line = nextLine();
+                        if (line == null) {
+                            break;
+                        }
+                        requests.add(line);
+                        binary = BinaryProtocol.isHandshake(scan.parse(line, line.length));
+                    }
+                }
+            } catch (ProtocolException e) {
+                failAndClose(BinaryProtocol.encodeResponse(new BinaryProtocol.Response(
+                        BinaryProtocol.STATUS_ERROR, e.getMessage().getBytes(StandardCharsets.UTF_8), true)));
+                return false;
+            }
+            in.compact();
+
+            if (binary) {
+                if (frameLength > in.capacity()) {
+                    grow(frameLength);
+                }
+            } else if (!in.hasRemaining()) {
+                if (in.capacity() >= MAX_LINE_LENGTH) {
+                    failAndClose(encode("ERROR: Line too long."));
+                    return false;
+                }
+                grow(in.capacity() * 2);
+            }
+            return true;
+        }
+
+        // Next '\n'-terminated line in the flipped read buffer (trailing '\r' dropped), or null.
+        private byte[] nextLine() {
+            byte[] bytes = in.array();
+            int start = in.position();
+            for (int i = start; i < in.limit(); i++) {
+                if (bytes[i] == '\n') {
+                    int lineEnd = (i > start && bytes[i - 1] == '\r') ? i - 1 : i;
+                    in.position(i + 1);
+                    return Arrays.copyOfRange(bytes, start, lineEnd);
+                }
+            }
+            return null;
+        }
+
+        private void grow(int capacity) {
+            ByteBuffer bigger = ByteBuffer.allocate(capacity);
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+
+        private void failAndClose(ByteBuffer... response) {
+            in.clear();
+            synchronized (this) {
+                Collections.addAll(pendingOutput, response);
+                closing = true;
+            }
+            flush();
+        }
+
+        // Worker side: run queued commands in order, one connection never on two workers at once.
+        // Replies of pipelined commands are batched and only handed to the reactor once every
+        // queued request has been answered, or once FLUSH_THRESHOLD bytes are waiting.
+        @Override
+        public void run() {
+            int unflushed = 0;
+            while (true) {
+                Object request;
+                synchronized (this) {
+                    request = closing ? null : pendingRequests.poll();
+                    if (request == null) {
+                        scheduled = false;
+                        break;
+                    }
+                }
+
+                ByteBuffer[] encoded;
+                boolean disconnect;
+                if (request instanceof byte[] line) {
+                    command.parse(line, line.length);
+                    ServerLog.command(command);
+                    if (CommandProcessor.isList(command)) {
+                        encoded = new ByteBuffer[]{ByteBuffer.wrap(processor.listResponse())};
+                        disconnect = false;
+                    } else {
+                        String response = processor.execute(command);
+                        encoded = new ByteBuffer[]{encode(response)};
+                        disconnect = CommandProcessor.DISCONNECT.equals(response);
+                    }
+                } else {
+                    BinaryProtocol.Response response = binaryProtocol.execute((BinaryProtocol.Request) request);
+                    encoded = BinaryProtocol.encodeResponse(response);
+                    disconnect = response.disconnect();
+                }
+                synchronized (this) {
+                    Collections.addAll(pendingOutput, encoded);
+                    if (disconnect) {
+                        closing = true;
+                        pendingRequests.clear();
+                    }
+                }
+                for (ByteBuffer buffer : encoded) {
+                    unflushed += buffer.remaining();
+                }
+                if (unflushed >= ClientHandler.FLUSH_THRESHOLD) {
+                    reactor.flushLater(this);
+                    unflushed = 0;
+                }
+            }
+            if (closed) {
+                releaseSessions();
+            } else {
+                reactor.flushLater(this);
+            }
+        }
+
+        // Worker side, after the socket is gone: give back blocks of an unfinished upload. A worker
+        // leaving run() and the one close() schedules can both get here; only the first cleans up.
+        private void releaseSessions() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            processor.close();
+            binaryProtocol.close();
+        }
+
+        // Reactor side: one gathering write of everything queued, then pick the next interest set.
+        void flush() {
+            if (closed) {
+                return;
+            }
+            synchronized (this) {
+                try {
+                    if (!pendingOutput.isEmpty()) {
+                        ByteBuffer[] buffers = pendingOutput.toArray(new ByteBuffer[0]);
+                        channel.write(buffers);
+                        while (!pendingOutput.isEmpty() && !pendingOutput.peek().hasRemaining()) {
+                            pendingOutput.poll();
+                        }
+                    }
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+
+                boolean drained = pendingOutput.isEmpty();
+                boolean finished = closing || (inputClosed && !scheduled && pendingRequests.isEmpty());
+                if (drained && finished) {
+                    close();
+                } else if (!drained) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else {
+                    key.interestOps(inputClosed || pendingRequests.size() >= MAX_PENDING_REQUESTS ? 0 : SelectionKey.OP_READ);
+                }
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            stats.connectionClosed();
+
+            // Upload cleanup takes the filesystem lock, so it runs on a worker, never the reactor.
+            // If a worker is draining this connection right now it does the cleanup on its way out.
+            synchronized (this) {
+                closing = true;
+                pendingRequests.clear();
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                releaseSessions(); // server shutting down
+            }
+        }
+
+        private ByteBuffer encode(String response) {
+            return ByteBuffer.wrap((response + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ca.concordia.server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control for single requests of the blocking engine, in either {@link ExecutionMode}.
+ *
+ * At most poolSize requests run at the same time. A request that finds them all taken waits
+ * in a queue of queueCapacity requests, first come first served, for at most queueMillis; a
+ * request that finds the queue full, or that waits longer, is answered BUSY without touching
+ * the filesystem. The connection stays open, so the client can simply retry.
+ */
+public class RequestGate {
+
+    private final Semaphore running;
+    private final int queueCapacity;
+    private final long maxWaitNanos;
+    private final ServerStats stats;
+
+    public RequestGate(ServerConfig config, ServerStats stats) {
+        this.running = new Semaphore(config.getPoolSize(), true);
+        this.queueCapacity = config.getQueueCapacity();
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.getQueueMillis());
+        this.stats = stats;
+    }
+
+    /** Takes a running slot; returns false (and holds nothing) if the request must be turned away. */
+    public boolean enter() {
+        if (!stats.tryQueue(queueCapacity)) {
+            stats.rejected();
+            return false;
+        }
+        long queuedAt = System.nanoTime();
+        boolean admitted;
+        try {
+            // Not tryAcquire(): that would take a free permit ahead of requests already waiting
+            admitted = running.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        if (!admitted) {
+            stats.unqueued();
+            stats.rejected();
+            return false;
+        }
+        stats.dequeued(System.nanoTime() - queuedAt);
+        return true;
+    }
+
+    /** Gives back the slot taken by a successful {@link #enter()}. */
+    public void exit() {
+        running.release();
+    }
+}
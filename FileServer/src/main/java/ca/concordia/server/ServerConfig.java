@@ -0,0 +1,249 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.Durability;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.Layout;
+import ca.concordia.filesystem.StorageBackend;
+
+/**
+ * Tunables for {@link FileServer}. Defaults match what {@code Main} uses when nothing is set;
+ * {@link #fromSystemProperties()} reads the {@code fileserver.*} properties on top of them.
+ */
+public class ServerConfig {
+
+    public static final int DEFAULT_POOL_SIZE = 64;
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    public static final int DEFAULT_QUEUE_MILLIS = 500;
+    public static final int DEFAULT_MAX_CONNECTIONS = 1024;
+    public static final int DEFAULT_REACTOR_THREADS = 1;
+    public static final int DEFAULT_WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_BATCH_MILLIS = 10;
+    public static final int DEFAULT_BATCH_OPS = 64;
+
+    private ServerEngine engine = ServerEngine.BLOCKING;
+    private ExecutionMode mode = ExecutionMode.VIRTUAL;
+    private int poolSize = DEFAULT_POOL_SIZE;          // requests running at once; PLATFORM threads kept alive
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY; // requests waiting for one of those
+    private int queueMillis = DEFAULT_QUEUE_MILLIS;     // longest a request waits before BUSY
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS; // open connections; PLATFORM mode threads
+    private int reactorThreads = DEFAULT_REACTOR_THREADS; // NIO engine selector threads
+    private int workerThreads = DEFAULT_WORKER_THREADS;   // NIO engine filesystem workers
+    private StorageBackend storage = StorageBackend.FILE;
+    private ForcePolicy forcePolicy = ForcePolicy.ON_CLOSE;
+    private Durability durability;                       // null keeps the force policy's default
+    private int batchMillis = DEFAULT_BATCH_MILLIS;      // BATCHED: oldest unforced change at most this old
+    private int batchOps = DEFAULT_BATCH_OPS;            // BATCHED: or this many changes waiting
+    private Long cacheBytes;                             // READ block cache; null keeps the filesystem's default (off)
+    private int blockSize = Geometry.DEFAULT_BLOCK_SIZE; // used when formatting a new image
+    private int maxFiles = 0;                            // same; 0 means one file slot per two blocks
+    private Layout layout = Layout.CHAINED;              // same
+
+    public static ServerConfig fromSystemProperties() {
+        return new ServerConfig()
+                .setEngine(ServerEngine.parse(System.getProperty("fileserver.engine")))
+                .setMode(ExecutionMode.parse(System.getProperty("fileserver.mode")))
+                .setPoolSize(Integer.getInteger("fileserver.poolSize", DEFAULT_POOL_SIZE))
+                .setQueueCapacity(Integer.getInteger("fileserver.queueCapacity", DEFAULT_QUEUE_CAPACITY))
+                .setQueueMillis(Integer.getInteger("fileserver.queueMillis", DEFAULT_QUEUE_MILLIS))
+                .setMaxConnections(Integer.getInteger("fileserver.maxConnections", DEFAULT_MAX_CONNECTIONS))
+                .setReactorThreads(Integer.getInteger("fileserver.reactorThreads", DEFAULT_REACTOR_THREADS))
+                .setWorkerThreads(Integer.getInteger("fileserver.workerThreads", DEFAULT_WORKER_THREADS))
+                .setStorage(StorageBackend.parse(System.getProperty("fileserver.storage")))
+                .setForcePolicy(ForcePolicy.parse(System.getProperty("fileserver.force")))
+                .setDurability(System.getProperty("fileserver.durability") == null ? null
+                        : Durability.parse(System.getProperty("fileserver.durability")))
+                .setBatchMillis(Integer.getInteger("fileserver.batchMillis", DEFAULT_BATCH_MILLIS))
+                .setBatchOps(Integer.getInteger("fileserver.batchOps", DEFAULT_BATCH_OPS))
+                .setCacheBytes(Long.getLong("fileserver.cacheBytes"))
+                .setBlockSize(Integer.getInteger("fileserver.blockSize", Geometry.DEFAULT_BLOCK_SIZE))
+                .setMaxFiles(Integer.getInteger("fileserver.maxFiles", 0))
+                .setLayout(Layout.parse(System.getProperty("fileserver.layout")));
+    }
+
+    public ServerEngine getEngine() {
+        return engine;
+    }
+
+    public ServerConfig setEngine(ServerEngine engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    public ServerConfig setMode(ExecutionMode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public ServerConfig setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1.");
+        }
+        this.poolSize = poolSize;
+        return this;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public ServerConfig setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1.");
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public int getQueueMillis() {
+        return queueMillis;
+    }
+
+    public ServerConfig setQueueMillis(int queueMillis) {
+        if (queueMillis < 0) {
+            throw new IllegalArgumentException("Queue wait cannot be negative.");
+        }
+        this.queueMillis = queueMillis;
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public ServerConfig setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Max connections must be at least 1.");
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public int getReactorThreads() {
+        return reactorThreads;
+    }
+
+    public ServerConfig setReactorThreads(int reactorThreads) {
+        if (reactorThreads < 1) {
+            throw new IllegalArgumentException("Reactor threads must be at least 1.");
+        }
+        this.reactorThreads = reactorThreads;
+        return this;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public ServerConfig setWorkerThreads(int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("Worker threads must be at least 1.");
+        }
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    public StorageBackend getStorage() {
+        return storage;
+    }
+
+    public ServerConfig setStorage(StorageBackend storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    public ForcePolicy getForcePolicy() {
+        return forcePolicy;
+    }
+
+    public ServerConfig setForcePolicy(ForcePolicy forcePolicy) {
+        this.forcePolicy = forcePolicy;
+        return this;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public ServerConfig setDurability(Durability durability) {
+        this.durability = durability;
+        return this;
+    }
+
+    public int getBatchMillis() {
+        return batchMillis;
+    }
+
+    public ServerConfig setBatchMillis(int batchMillis) {
+        if (batchMillis < 1) {
+            throw new IllegalArgumentException("Batch interval must be at least 1 ms.");
+        }
+        this.batchMillis = batchMillis;
+        return this;
+    }
+
+    public int getBatchOps() {
+        return batchOps;
+    }
+
+    public ServerConfig setBatchOps(int batchOps) {
+        if (batchOps < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        this.batchOps = batchOps;
+        return this;
+    }
+
+    public Long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    public ServerConfig setCacheBytes(Long cacheBytes) {
+        if (cacheBytes != null && cacheBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative.");
+        }
+        this.cacheBytes = cacheBytes;
+        return this;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public ServerConfig setBlockSize(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be at least 1.");
+        }
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    public int getMaxFiles() {
+        return maxFiles;
+    }
+
+    public ServerConfig setMaxFiles(int maxFiles) {
+        if (maxFiles < 0) {
+            throw new IllegalArgumentException("Max files cannot be negative.");
+        }
+        this.maxFiles = maxFiles;
+        return this;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public ServerConfig setLayout(Layout layout) {
+        this.layout = layout;
+        return this;
+    }
+}
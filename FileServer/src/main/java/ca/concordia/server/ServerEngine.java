@@ -0,0 +1,25 @@
+package ca.concordia.server;
+
+/**
+ * Which network engine {@link FileServer} runs.
+ *
+ * BLOCKING is the classic accept loop with one {@link ClientHandler} per connection, scheduled
+ * according to the {@link ExecutionMode}. NIO runs {@link NioFileServer}: a few selector threads
+ * own every socket and only the filesystem work goes to a small worker pool, so idle clients
+ * do not hold a thread at all.
+ */
+public enum ServerEngine {
+    BLOCKING,
+    NIO;
+
+    public static ServerEngine parse(String value) {
+        if (value == null || value.isBlank()) {
+            return BLOCKING;
+        }
+        try {
+            return ServerEngine.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown server engine '" + value + "' (expected blocking or nio)");
+        }
+    }
+}
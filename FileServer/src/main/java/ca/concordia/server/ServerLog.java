@@ -0,0 +1,198 @@
+package ca.concordia.server;
+
+import java.io.PrintStream;
+import java.time.LocalTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous server log.
+ *
+ * Request threads only drop an entry into a fixed-size ring buffer (one CAS, no lock) and a
+ * single daemon thread formats and prints the entries, so a busy server never queues up on the
+ * System.out lock. When the ring is full the entry is dropped and counted instead of blocking.
+ * Messages are passed as a prefix plus an argument and concatenated on the writer thread, so a
+ * disabled level costs one volatile read and nothing else.
+ *
+ * Configured with -Dfileserver.log.level=debug|info|warn|error|off (default info) and
+ * -Dfileserver.log.sample=N, which logs one in N received commands at debug level.
+ */
+public final class ServerLog {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF;
+
+        public static Level parse(String value) {
+            if (value == null || value.isBlank()) {
+                return INFO;
+            }
+            try {
+                return Level.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown log level '" + value + "'");
+            }
+        }
+    }
+
+    private record Entry(Level level, long timeNanos, String thread, String message, Object arg) {}
+
+    private static final int CAPACITY = 1 << 14; // power of two
+    private static final int BATCH_SIZE = 64 * 1024;
+    private static final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong head = new AtomicLong(); // next sequence to claim
+    private static volatile long tail;                       // next sequence the writer takes
+    private static volatile long printed;                    // sequences below this are on the stream
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static volatile Level threshold = Level.parse(System.getProperty("fileserver.log.level"));
+    private static volatile int sampleEvery = Math.max(1, Integer.getInteger("fileserver.log.sample", 1));
+    private static volatile PrintStream out = System.out;
+    private static volatile Thread writer;
+    private static volatile boolean idle;                    // the writer is parked, or about to, on an empty ring
+
+    private static final long START_NANOS = System.nanoTime();
+    private static final LocalTime START_TIME = LocalTime.now();
+
+    private ServerLog() {
+    }
+
+    public static void configure(Level level, int sample, PrintStream target) {
+        threshold = level;
+        sampleEvery = Math.max(1, sample);
+        out = target;
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold.ordinal();
+    }
+
+    /** Debug line for a received command, kept for one in {@code fileserver.log.sample} commands. */
+    public static void command(String line) {
+        if (sampleCommand()) publish(Level.DEBUG, "Received from client: ", line);
+    }
+
+    /** Same as {@link #command(String)}; the line is copied out of the connection's buffer only if kept. */
+    public static void command(CommandLine line) {
+        if (sampleCommand()) publish(Level.DEBUG, "Received from client: ", line.toString());
+    }
+
+    public static void debug(String message, Object arg) {
+        if (isEnabled(Level.DEBUG)) publish(Level.DEBUG, message, arg);
+    }
+
+    public static void info(String message) {
+        if (isEnabled(Level.INFO)) publish(Level.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        if (isEnabled(Level.WARN)) publish(Level.WARN, message, null);
+    }
+
+    public static void error(String message, Throwable cause) {
+        if (isEnabled(Level.ERROR)) publish(Level.ERROR, message, cause);
+    }
+
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    /** Waits (at most a second) until everything logged so far has been printed. */
+    public static void flush() {
+        long target = head.get();
+        long deadline = System.nanoTime() + 1_000_000_000L;
+        while (printed < target && writer != null && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(100_000);
+        }
+        out.flush();
+    }
+
+    private static boolean sampleCommand() {
+        if (!isEnabled(Level.DEBUG)) {
+            return false;
+        }
+        int every = sampleEvery;
+        return every == 1 || ThreadLocalRandom.current().nextInt(every) == 0;
+    }
+
+    private static void publish(Level level, String message, Object arg) {
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        ring.set((int) (seq & (CAPACITY - 1)),
+                new Entry(level, System.nanoTime(), Thread.currentThread().getName(), message, arg));
+        Thread thread = writer;
+        if (thread == null) {
+            startWriter();
+        } else if (idle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        Thread thread = new Thread(ServerLog::drain, "server-log");
+        thread.setDaemon(true);
+        thread.start();
+        writer = thread;
+        Runtime.getRuntime().addShutdownHook(new Thread(ServerLog::flush, "server-log-flush"));
+    }
+
+    // Lines are formatted into one batch and printed with a single call, so the stream's lock
+    // and the write syscall are paid once per batch rather than once per line.
+    private static void drain() {
+        StringBuilder batch = new StringBuilder(BATCH_SIZE + 256);
+        while (true) {
+            int slot = (int) (tail & (CAPACITY - 1));
+            Entry entry = ring.get(slot);
+            if (entry == null || batch.length() >= BATCH_SIZE) {
+                if (batch.length() > 0) {
+                    out.print(batch);
+                    out.flush();
+                    batch.setLength(0);
+                }
+                printed = tail;
+                if (entry != null) {
+                    continue;
+                }
+                if (head.get() != tail) {
+                    // A producer claimed the slot and is about to store its entry
+                    Thread.onSpinWait();
+                    continue;
+                }
+                // Nothing queued: sleep until a publish finds the writer idle. The slot is read
+                // again after idle is set, so an entry stored meanwhile is never left waiting.
+                idle = true;
+                if (ring.get(slot) == null) {
+                    LockSupport.park();
+                }
+                idle = false;
+                continue;
+            }
+            ring.set(slot, null);
+            tail = tail + 1;
+
+            batch.append(START_TIME.plusNanos(entry.timeNanos() - START_NANOS)).append(' ')
+                    .append(entry.level()).append(" [").append(entry.thread()).append("] ")
+                    .append(entry.message());
+            if (entry.arg() instanceof Throwable cause) {
+                out.print(batch.append(System.lineSeparator()));
+                batch.setLength(0);
+                cause.printStackTrace(out);
+                continue;
+            }
+            if (entry.arg() != null) {
+                batch.append(entry.arg());
+            }
+            batch.append(System.lineSeparator());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.FileSystemManager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission counters for {@link FileServer}. Everything is a plain atomic so the accept loop
+ * and the workers can update them without taking a lock. The queue counters follow single
+ * requests in the blocking engine ({@link RequestGate}) and newly accepted connections
+ * waiting for their first worker in the NIO engine.
+ */
+public class ServerStats {
+
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    /** Reserves a connection slot; returns false (and leaves nothing reserved) if the cap is reached. */
+    boolean tryAdmit(int maxConnections) {
+        while (true) {
+            int current = activeConnections.get();
+            if (current >= maxConnections) {
+                return false;
+            }
+            if (activeConnections.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    /** Takes a queue place; returns false (and takes nothing) if all queueCapacity places are taken. */
+    boolean tryQueue(int queueCapacity) {
+        while (true) {
+            int current = queueDepth.get();
+            if (current >= queueCapacity) {
+                return false;
+            }
+            if (queueDepth.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void queued() {
+        queueDepth.incrementAndGet();
+    }
+
+    void dequeued(long waitedNanos) {
+        queueDepth.decrementAndGet();
+        admitted.incrementAndGet();
+        totalQueueNanos.addAndGet(waitedNanos);
+        maxQueueNanos.accumulateAndGet(waitedNanos, Math::max);
+    }
+
+    /** Undoes {@link #queued()} or {@link #tryQueue(int)} for one that was turned away. */
+    void unqueued() {
+        queueDepth.decrementAndGet();
+    }
+
+    void rejected() {
+        rejected.incrementAndGet();
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getTotalQueueNanos() {
+        return totalQueueNanos.get();
+    }
+
+    public long getMaxQueueNanos() {
+        return maxQueueNanos.get();
+    }
+
+    public String summary() {
+        long count = Math.max(1, admitted.get());
+        return "active=" + getActiveConnections()
+                + " queued=" + getQueueDepth()
+                + " admitted=" + getAdmitted()
+                + " rejected=" + getRejected()
+                + " avgQueueMicros=" + (getTotalQueueNanos() / count / 1000)
+                + " maxQueueMicros=" + (getMaxQueueNanos() / 1000);
+    }
+
+    /** {@link #summary()} plus the READ block cache counters of the filesystem served. */
+    public String summary(FileSystemManager fsManager) {
+        return summary()
+                + " cacheHits=" + fsManager.getCacheHits()
+                + " cacheMisses=" + fsManager.getCacheMisses();
+    }
+}
@@ -1,11 +1,33 @@
+import ca.concordia.filesystem.BlockBitmap;
+import ca.concordia.filesystem.DirectorySnapshot;
+import ca.concordia.filesystem.Durability;
 import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.Layout;
+import ca.concordia.filesystem.StorageBackend;
+import ca.concordia.filesystem.UploadSession;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class FileSystemTests {
     static FileSystemManager fs;
 
+    @TempDir
+    Path tempDir; // images of a single test, removed with their journals once it ends
+
     @BeforeAll
     static void setup() throws Exception {
         fs = new FileSystemManager("testfs.dat", 10 * 128);
@@ -60,4 +82,711 @@ public class FileSystemTests {
             assertNotEquals("b.txt", fileName);
         }
     }
+
+    @Test
+    void testChunkedUploadPublishesOnCommit() throws Exception {
+        recreate("u.txt");
+        fs.writeFile("u.txt", "old".getBytes());
+
+        String content = "chunked upload content that spans more than one block. ".repeat(4);
+        byte[] bytes = content.getBytes();
+        UploadSession upload = fs.beginUpload("u.txt");
+        for (int offset = 0; offset < bytes.length; offset += 50) {
+            fs.appendUpload(upload, bytes, offset, Math.min(50, bytes.length - offset));
+            assertEquals("old", new String(fs.readFile("u.txt")), "Content must not change before commit");
+        }
+        fs.commitUpload(upload);
+        assertEquals(content, new String(fs.readFile("u.txt")));
+        fs.deleteFile("u.txt");
+    }
+
+    @Test
+    void testAbortedUploadKeepsContentAndFreesBlocks() throws Exception {
+        recreate("u.txt");
+        fs.writeFile("u.txt", "kept".getBytes());
+
+        UploadSession upload = fs.beginUpload("u.txt");
+        byte[] chunk = new byte[300];
+        fs.appendUpload(upload, chunk, 0, chunk.length);
+        fs.abortUpload(upload);
+        assertEquals("kept", new String(fs.readFile("u.txt")));
+        assertThrows(Exception.class, () -> fs.commitUpload(upload));
+
+        // The blocks reserved by the aborted upload are available again
+        UploadSession again = fs.beginUpload("u.txt");
+        fs.appendUpload(again, chunk, 0, chunk.length);
+        fs.commitUpload(again);
+        assertEquals(300, fs.readFile("u.txt").length);
+        fs.deleteFile("u.txt");
+    }
+
+    @Test
+    void testImagesOpenWithEitherBackend() throws Exception {
+        File image = tempImage("backend");
+        FileSystemManager file = new FileSystemManager(image.getPath(), 10 * 128);
+        file.createFile("f.txt");
+        file.writeFile("f.txt", "from file backend".getBytes());
+        file.close();
+        // A rewrite moves the file to new blocks, so the file backend rewrites a copy to compare with
+        File copy = tempImage("backend-copy");
+        Files.copy(image.toPath(), copy.toPath());
+        file = new FileSystemManager(copy.getPath(), 10 * 128);
+        file.writeFile("f.txt", "from file backend".getBytes());
+        file.close();
+        byte[] written = Files.readAllBytes(copy.toPath());
+
+        FileSystemManager mapped = new FileSystemManager(image.getPath(), 10 * 128, StorageBackend.MAPPED, ForcePolicy.ON_WRITE);
+        assertEquals("from file backend", new String(mapped.readFile("f.txt")));
+        mapped.writeFile("f.txt", "from file backend".getBytes());
+        mapped.close();
+        assertArrayEquals(written, Files.readAllBytes(image.toPath()), "Both backends must write the same layout");
+
+        mapped = new FileSystemManager(image.getPath(), 10 * 128, StorageBackend.MAPPED, ForcePolicy.ON_CLOSE);
+        mapped.createFile("m.txt");
+        mapped.writeFile("m.txt", new byte[300]);
+        mapped.close();
+        file = new FileSystemManager(image.getPath(), 10 * 128);
+        assertEquals(300, file.readFile("m.txt").length);
+        file.close();
+    }
+
+    @Test
+    void testImageKeepsGeometryFromSuperblock() throws Exception {
+        assertEquals(5, fs.getGeometry().getMaxFiles(), "Images without a superblock open with the legacy geometry");
+        assertEquals(10, fs.getGeometry().getMaxBlocks());
+
+        File image = tempImage("geometry");
+        FileSystemManager big = new FileSystemManager(image.getPath(), new Geometry(300, 1000, 256), StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+        byte[] content = new byte[100_000]; // past the 32767-byte limit of 2-byte size fields
+        for (int i = 0; i < content.length; i++) content[i] = (byte) i;
+        big.createFile("big.bin");
+        big.writeFile("big.bin", content);
+        for (int i = 0; i < 250; i++) big.createFile("f" + i);
+        big.close();
+        assertEquals((byte) 0x89, Files.readAllBytes(image.toPath())[0]);
+
+        // totalSize only shapes new images
+        FileSystemManager reopened = new FileSystemManager(image.getPath(), 10 * 128);
+        assertEquals(300, reopened.getGeometry().getMaxFiles());
+        assertEquals(1000, reopened.getGeometry().getMaxBlocks());
+        assertEquals(256, reopened.getGeometry().getBlockSize());
+        assertArrayEquals(content, reopened.readFile("big.bin"));
+        assertEquals(251, reopened.listFiles().length);
+        reopened.close();
+
+        // A new image of 10*128 bytes still holds 9 data blocks, superblock and all
+        image.delete();
+        FileSystemManager small = new FileSystemManager(image.getPath(), 10 * 128);
+        assertEquals(5, small.getGeometry().getMaxFiles());
+        small.createFile("full");
+        small.writeFile("full", new byte[9 * 128]);
+        assertThrows(Exception.class, () -> small.writeFile("full", new byte[9 * 128 + 1]));
+        small.close();
+
+        // Metadata too big for int offsets is turned down, asked for or read from a superblock
+        assertThrows(IllegalArgumentException.class, () -> new Geometry(200_000_000, 1000, 128));
+        try (RandomAccessFile raw = new RandomAccessFile(image, "rw")) {
+            raw.seek(16); // maxFiles
+            raw.writeInt(200_000_000);
+        }
+        assertThrows(IOException.class, () -> new FileSystemManager(image.getPath(), 10 * 128));
+    }
+
+    @Test
+    void testLookupsSurviveCreateDeleteChurn() throws Exception {
+        File image = tempImage("index");
+        FileSystemManager many = new FileSystemManager(image.getPath(), new Geometry(500, 600, 64), StorageBackend.MAPPED, ForcePolicy.ON_CLOSE);
+        for (int i = 0; i < 500; i++) many.createFile("n" + i);
+        for (int i = 0; i < 500; i += 2) many.deleteFile("n" + i);
+        for (int i = 1; i < 500; i += 2) assertEquals(0, many.getFileSize("n" + i), "n" + i);
+        for (int i = 0; i < 500; i += 2) {
+            String deleted = "n" + i;
+            assertThrows(Exception.class, () -> many.getFileSize(deleted), deleted);
+        }
+        for (int i = 0; i < 250; i++) many.createFile("m" + i); // refills the freed slots
+        assertThrows(Exception.class, () -> many.createFile("full"));
+        assertThrows(Exception.class, () -> many.createFile("n1"));
+        many.close();
+
+        FileSystemManager remounted = new FileSystemManager(image.getPath(), 10 * 128);
+        assertEquals(500, remounted.listFiles().length);
+        assertEquals(0, remounted.getFileSize("m249"));
+        assertEquals(0, remounted.getFileSize("n499"));
+        assertThrows(Exception.class, () -> remounted.getFileSize("n0"));
+        remounted.close();
+    }
+
+    @Test
+    void testChainedImageMigratesToExtents() throws Exception {
+        File chained = tempImage("chained");
+        File extent = tempImage("extent");
+        FileSystemManager old = new FileSystemManager(chained.getPath(), new Geometry(20, 400, 64), StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+        byte[] content = new byte[5000];
+        for (int i = 0; i < content.length; i++) content[i] = (byte) (i * 7);
+        old.createFile("a");
+        old.createFile("b");
+        old.writeFile("a", content);
+        old.writeFile("b", "hello".getBytes());
+        old.createFile("empty");
+        old.close();
+
+        FileSystemManager.migrate(chained.getPath(), extent.getPath(), Layout.EXTENT);
+        FileSystemManager fresh = new FileSystemManager(extent.getPath(), 10 * 128);
+        assertEquals(Layout.EXTENT, fresh.getLayout());
+        assertEquals(3, fresh.listFiles().length);
+        assertArrayEquals(content, fresh.readFile("a"));
+        assertArrayEquals("hello".getBytes(), fresh.readFile("b"));
+        assertEquals(0, fresh.getFileSize("empty"));
+        assertArrayEquals(Arrays.copyOfRange(content, 130, 4000), fresh.readFile("a", 130, 3870));
+        assertArrayEquals(Arrays.copyOfRange(content, 4990, 5000), fresh.readFile("a", 4990, 100));
+
+        // Grow one file around another so its runs are no longer adjacent, shrink, then remount
+        byte[] longer = new byte[9000];
+        for (int i = 0; i < longer.length; i++) longer[i] = (byte) (i * 3);
+        fresh.writeFile("b", longer);
+        fresh.writeFile("a", Arrays.copyOf(content, 100));
+        fresh.writeFile("b", Arrays.copyOf(longer, 12000));
+        fresh.deleteFile("empty");
+        fresh.close();
+
+        FileSystemManager remounted = new FileSystemManager(extent.getPath(), 10 * 128, StorageBackend.MAPPED, ForcePolicy.ON_CLOSE);
+        assertArrayEquals(Arrays.copyOf(content, 100), remounted.readFile("a"));
+        assertArrayEquals(Arrays.copyOf(longer, 12000), remounted.readFile("b"));
+        assertArrayEquals(Arrays.copyOfRange(longer, 8000, 8100), remounted.readFile("b", 8000, 100));
+        // Every block not held by a (2) or b (188) is free again; metadata takes 57 of the 400
+        int freeBlocks = 400 - 57 - 2 - 188;
+        remounted.createFile("fill");
+        remounted.writeFile("fill", new byte[freeBlocks * 64]);
+        assertThrows(Exception.class, () -> remounted.writeFile("a", new byte[200]));
+        remounted.close();
+    }
+
+    @Test
+    void testWritersToDifferentFilesRunTogether() throws Exception {
+        File image = tempImage("striped");
+        FileSystemManager shared = new FileSystemManager(image.getPath(), new Geometry(16, 8000, 64),
+                Layout.EXTENT, StorageBackend.MAPPED, ForcePolicy.ON_CLOSE);
+        int writers = 8;
+        for (int t = 0; t < writers; t++) shared.createFile("w" + t);
+
+        // A writer parked on one file does not hold up a reader of another
+        shared.lockWrite("w0");
+        try {
+            CompletableFuture<byte[]> other = CompletableFuture.supplyAsync(() -> {
+                try {
+                    shared.lockRead("w1");
+                    try {
+                        return shared.readFile("w1");
+                    } finally {
+                        shared.unlockRead("w1");
+                    }
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            });
+            assertEquals(0, other.get(5, TimeUnit.SECONDS).length);
+        } finally {
+            shared.unlockWrite("w0");
+        }
+
+        // Every writer grows and shrinks its own file and checks it reads back whole
+        Thread[] threads = new Thread[writers];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < writers; t++) {
+            String name = "w" + t;
+            byte fill = (byte) t;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int round = 0; round < 200; round++) {
+                        byte[] content = new byte[1 + (round * 997) % 20_000];
+                        Arrays.fill(content, fill);
+                        shared.lockWrite(name);
+                        try {
+                            shared.writeFile(name, content);
+                            assertArrayEquals(content, shared.readFile(name), name);
+                        } finally {
+                            shared.unlockWrite(name);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertNull(failure[0]);
+        for (int t = 0; t < writers; t++) shared.deleteFile("w" + t);
+        shared.close();
+
+        // Nothing leaked: one file can take every data block again
+        FileSystemManager remounted = new FileSystemManager(image.getPath(), 10 * 128);
+        int metadataBlocks = (64 + 16 * 19 + 4000 * 8 + 63) / 64;
+        remounted.createFile("all");
+        remounted.writeFile("all", new byte[(4000 - metadataBlocks) * 64]);
+        remounted.close();
+    }
+
+    @Test
+    void testDirectorySnapshotChangesOnlyWithTheDirectory() throws Exception {
+        File image = tempImage("directory");
+        FileSystemManager dir = new FileSystemManager(image.getPath(), new Geometry(8, 64, 64), StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+        dir.createFile("a");
+        dir.createFile("b");
+        DirectorySnapshot first = dir.directory();
+        assertArrayEquals(new String[]{"a", "b"}, first.toArray());
+
+        dir.writeFile("a", "content".getBytes());
+        assertSame(first, dir.directory(), "WRITE does not change the directory");
+
+        dir.deleteFile("a");
+        dir.createFile("c"); // takes the slot a left, so it lists first
+        DirectorySnapshot second = dir.directory();
+        assertNotSame(first, second);
+        assertArrayEquals(new String[]{"c", "b"}, second.toArray());
+        assertArrayEquals(new String[]{"a", "b"}, first.toArray(), "Old snapshots never change");
+        assertArrayEquals(second.toArray(), dir.listFiles());
+        dir.close();
+    }
+
+    @Test
+    void testJournalIsReplayedAtMount() throws Exception {
+        File image = tempImage("journaled");
+        File crashed = tempImage("crashed");
+        File journal = new File(image.getPath() + ".journal");
+        File crashedJournal = new File(crashed.getPath() + ".journal");
+        FileSystemManager live = new FileSystemManager(image.getPath(), new Geometry(20, 400, 64), StorageBackend.FILE, ForcePolicy.JOURNAL);
+        byte[] formatted = Files.readAllBytes(image.toPath());
+        byte[] content = new byte[3000];
+        for (int i = 0; i < content.length; i++) content[i] = (byte) (i * 5);
+        live.createFile("a");
+        live.writeFile("a", content);
+        live.createFile("b");
+        live.writeFile("b", "gone".getBytes());
+        live.deleteFile("b");
+        assertTrue(live.getJournalCommits() > 0);
+
+        // A crash after the journal reached the device but before any metadata reached the
+        // image: the data blocks are there, the metadata blocks (57 of 64 bytes) are as formatted
+        byte[] state = Files.readAllBytes(image.toPath());
+        System.arraycopy(formatted, 0, state, 0, 57 * 64);
+        Files.write(crashed.toPath(), state);
+        byte[] records = Files.readAllBytes(journal.toPath());
+        byte[] torn = Arrays.copyOf(records, records.length + 30); // a record cut off mid-write
+        torn[records.length + 3] = 40;
+        Files.write(crashedJournal.toPath(), torn);
+        live.close();
+        assertEquals(0, journal.length());
+
+        FileSystemManager recovered = new FileSystemManager(crashed.getPath(), 10 * 128);
+        assertArrayEquals(new String[]{"a"}, recovered.listFiles());
+        assertArrayEquals(content, recovered.readFile("a"));
+        assertEquals(0, crashedJournal.length());
+        recovered.close();
+    }
+
+    @Test
+    void testFreedBlocksAreWipedOnlyOnceTheDeleteIsDurable() throws Exception {
+        File image = tempImage("unlinked");
+        File crashed = tempImage("unlinked-crash");
+        File journal = new File(image.getPath() + ".journal");
+        File crashedJournal = new File(crashed.getPath() + ".journal");
+        FileSystemManager live = new FileSystemManager(image.getPath(), new Geometry(20, 400, 64), StorageBackend.FILE, ForcePolicy.JOURNAL);
+        byte[] content = new byte[3000];
+        Arrays.fill(content, (byte) 0x5A);
+        live.createFile("a");
+        live.writeFile("a", content);
+        live.deleteFile("a", Durability.ASYNC);
+        for (int i = 0; i < 500 && live.getPendingReclaim() > 0; i++) Thread.sleep(10);
+        assertEquals(0, live.getPendingReclaim());
+
+        // A crash once the blocks are wiped must not bring back a file that points at them
+        Files.copy(image.toPath(), crashed.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(journal.toPath(), crashedJournal.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        live.close();
+        FileSystemManager recovered = new FileSystemManager(crashed.getPath(), 10 * 128);
+        assertEquals(0, recovered.listFiles().length);
+        recovered.close();
+    }
+
+    @Test
+    void testDurabilityDecidesWhenTheJournalCommits() throws Exception {
+        File image = tempImage("durability");
+        File crashed = tempImage("durability-crash");
+        File journal = new File(image.getPath() + ".journal");
+        File crashedJournal = new File(crashed.getPath() + ".journal");
+        FileSystemManager dfs = new FileSystemManager(image.getPath(), new Geometry(20, 400, 64), StorageBackend.FILE, ForcePolicy.JOURNAL);
+        assertEquals(Durability.SYNC, dfs.getDurability());
+        dfs.setDurability(Durability.ASYNC);
+        dfs.createFile("a");
+        dfs.writeFile("a", "async".getBytes());
+        assertEquals(0, dfs.getJournalCommits());
+
+        // Not committed, but already in the journal file: a crash of the process keeps them
+        Files.copy(image.toPath(), crashed.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(journal.toPath(), crashedJournal.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        FileSystemManager recovered = new FileSystemManager(crashed.getPath(), 10 * 128);
+        assertArrayEquals("async".getBytes(), recovered.readFile("a"));
+        recovered.close();
+
+        // One SYNC change commits everything queued before it in the same group
+        dfs.createFile("b", Durability.SYNC);
+        assertEquals(1, dfs.getJournalCommits());
+
+        dfs.setBatchWindow(5, 1000);
+        dfs.writeFile("b", "batched".getBytes(), Durability.BATCHED);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dfs.getJournalCommits() < 2 && System.nanoTime() < deadline) Thread.sleep(1);
+        assertEquals(2, dfs.getJournalCommits());
+        dfs.close();
+
+        FileSystemManager reopened = new FileSystemManager(image.getPath(), 10 * 128);
+        assertArrayEquals("async".getBytes(), reopened.readFile("a"));
+        assertArrayEquals("batched".getBytes(), reopened.readFile("b"));
+        reopened.close();
+    }
+
+    @Test
+    void testFreedBlocksAreScrubbedBeforeReuse() throws Exception {
+        File image = tempImage("scrub");
+        FileSystemManager sfs = new FileSystemManager(image.getPath(), new Geometry(20, 400, 64), StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+        byte[] marked = new byte[300 * 64];
+        Arrays.fill(marked, (byte) 0x5A);
+        sfs.createFile("big");
+        sfs.writeFile("big", marked);
+        sfs.deleteFile("big");
+        for (int i = 0; i < 500 && sfs.getPendingReclaim() > 0; i++) Thread.sleep(10);
+        assertEquals(0, sfs.getPendingReclaim());
+        byte[] raw = Files.readAllBytes(image.toPath());
+        for (int i = 57 * 64; i < raw.length; i++) assertNotEquals((byte) 0x5A, raw[i], "byte " + i);
+
+        // Every data block (400 less 57 of metadata) is usable again, and the reused blocks
+        // read back as zeroes
+        sfs.createFile("fill");
+        sfs.writeFile("fill", new byte[343 * 64]);
+        assertArrayEquals(new byte[343 * 64], sfs.readFile("fill"));
+        sfs.deleteFile("fill");
+        sfs.createFile("fill");
+        sfs.close();
+
+        // Without zeroing, a freed block keeps its old bytes until it is written again
+        FileSystemManager kept = new FileSystemManager(image.getPath(), 10 * 128);
+        kept.setZeroFreedBlocks(false);
+        kept.writeFile("fill", marked);
+        kept.writeFile("fill", new byte[10]);
+        kept.close();
+        int leftover = 0;
+        raw = Files.readAllBytes(image.toPath());
+        for (int i = 57 * 64; i < raw.length; i++) if (raw[i] == 0x5A) leftover++;
+        assertTrue(leftover > 0);
+    }
+
+    @Test
+    void testLargeUploadRoundTripsOnEitherBackend() throws Exception {
+        byte[] bytes = new byte[150_000]; // more than two upload buffers, ending mid-block
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) (i * 31);
+        for (StorageBackend backend : StorageBackend.values()) {
+            File image = tempImage("upload-" + backend);
+            FileSystemManager ufs = new FileSystemManager(image.getPath(), new Geometry(8, 3000, 128), backend, ForcePolicy.ON_CLOSE);
+            ufs.createFile("big");
+            ufs.writeFile("big", new byte[1000]);
+            UploadSession upload = ufs.beginUpload("big");
+            for (int offset = 0; offset < bytes.length; offset += 7000) {
+                ufs.appendUpload(upload, bytes, offset, Math.min(7000, bytes.length - offset));
+            }
+            ufs.commitUpload(upload);
+            assertArrayEquals(bytes, ufs.readFile("big"));
+            ufs.writeFile("big", Arrays.copyOf(bytes, 1001));
+            assertArrayEquals(Arrays.copyOf(bytes, 1001), ufs.readFile("big"));
+            ufs.close();
+        }
+    }
+
+    @Test
+    void testInterleavedChainsSurviveRemount() throws Exception {
+        File image = tempImage("chains");
+        FileSystemManager cfs = new FileSystemManager(image.getPath(), new Geometry(20, 400, 64), StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+        byte[] content = new byte[6000];
+        for (int i = 0; i < content.length; i++) content[i] = (byte) (i * 13);
+        cfs.createFile("a");
+        cfs.createFile("b");
+        // Growing each file in turn leaves both chains in several runs with gaps between them
+        cfs.writeFile("a", Arrays.copyOf(content, 1000));
+        cfs.writeFile("b", Arrays.copyOf(content, 1000));
+        cfs.writeFile("a", Arrays.copyOf(content, 3000));
+        cfs.writeFile("b", content);
+        cfs.deleteFile("a");
+        cfs.writeFile("b", Arrays.copyOf(content, 5000));
+        cfs.close();
+
+        FileSystemManager remounted = new FileSystemManager(image.getPath(), 10 * 128);
+        assertArrayEquals(Arrays.copyOf(content, 5000), remounted.readFile("b"));
+        assertEquals(1, remounted.listFiles().length);
+        // b holds 79 blocks; the rest of the 343 data blocks are free again
+        remounted.createFile("fill");
+        remounted.writeFile("fill", new byte[(343 - 79) * 64]);
+        assertThrows(Exception.class, () -> remounted.writeFile("b", new byte[6000]));
+        remounted.close();
+    }
+
+    @Test
+    void testBlockCacheServesRepeatedReads() throws Exception {
+        File image = tempImage("cache");
+        FileSystemManager cfs = new FileSystemManager(image.getPath(), new Geometry(20, 400, 64), StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+        assertEquals(0, cfs.getBlockCacheBytes()); // off unless asked for
+        cfs.setBlockCacheBytes(2 * 4096 + 10); // two pages of 64 blocks
+        assertEquals(2 * 4096, cfs.getBlockCacheBytes());
+        byte[] content = new byte[600]; // blocks 57 to 66, across the first two pages
+        for (int i = 0; i < content.length; i++) content[i] = (byte) (i * 5);
+        cfs.createFile("a");
+        cfs.writeFile("a", content);
+
+        assertArrayEquals(content, cfs.readFile("a"));
+        assertEquals(0, cfs.getCacheHits());
+        assertEquals(2, cfs.getCacheMisses());
+        assertArrayEquals(content, cfs.readFile("a"));
+        assertArrayEquals(Arrays.copyOfRange(content, 70, 200), cfs.readFile("a", 70, 130));
+        assertEquals(2 + 1, cfs.getCacheHits());
+        assertEquals(2, cfs.getCacheMisses());
+
+        // A write replaces the cached blocks, and a freed block leaves the cache before reuse
+        byte[] changed = Arrays.copyOf(content, 300);
+        Arrays.fill(changed, 100, 300, (byte) 7);
+        cfs.writeFile("a", changed);
+        assertArrayEquals(changed, cfs.readFile("a"));
+        cfs.deleteFile("a");
+        cfs.createFile("b");
+        cfs.writeFile("b", new byte[0]);
+        cfs.writeFile("b", "fresh".getBytes());
+        assertArrayEquals("fresh".getBytes(), cfs.readFile("b"));
+
+        // More pages than the cache holds are still read correctly
+        byte[] large = new byte[300 * 64];
+        for (int i = 0; i < large.length; i++) large[i] = (byte) (i * 3);
+        cfs.writeFile("b", large);
+        for (int round = 0; round < 3; round++) assertArrayEquals(large, cfs.readFile("b"));
+
+        cfs.setBlockCacheBytes(0);
+        assertEquals(0, cfs.getBlockCacheBytes());
+        assertArrayEquals(large, cfs.readFile("b"));
+        cfs.close();
+    }
+
+    @Test
+    void testConcurrentReadersKeepTheirOwnPositions() throws Exception {
+        File image = tempImage("readers");
+        FileSystemManager rfs = new FileSystemManager(image.getPath(), new Geometry(8, 400, 64), StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+        byte[][] contents = new byte[4][];
+        for (int f = 0; f < contents.length; f++) {
+            contents[f] = new byte[3000 + f * 500];
+            for (int i = 0; i < contents[f].length; i++) contents[f][i] = (byte) (i * (f + 3));
+            rfs.createFile("r" + f);
+            rfs.writeFile("r" + f, contents[f]);
+        }
+
+        // Readers only share the read lock, so a seek by one would move the reads of the others
+        Thread[] threads = new Thread[8];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads.length; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int round = 0; round < 300; round++) {
+                        int f = (first + round) % contents.length;
+                        String name = "r" + f;
+                        rfs.lockRead(name);
+                        try {
+                            assertArrayEquals(contents[f], rfs.readFile(name), name);
+                            assertArrayEquals(Arrays.copyOfRange(contents[f], 100, 1100), rfs.readFile(name, 100, 1000), name);
+                        } finally {
+                            rfs.unlockRead(name);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertNull(failure[0]);
+        rfs.close();
+    }
+
+    @Test
+    void testFreeMapHandsOutNextFitRuns() throws Exception {
+        BlockBitmap map = new BlockBitmap(130); // three words, the last one mostly past the end
+        assertEquals(-1, map.allocate());
+        for (int block = 0; block < 130; block++) map.free(block);
+        map.free(5); // a block freed twice is counted once
+        assertEquals(130, map.freeCount());
+
+        assertEquals(0, map.allocate());
+        assertEquals(1, map.allocate());
+        long run = map.allocateRun(100); // goes on where the last allocation stopped, across words
+        assertEquals(2, run >>> 32);
+        assertEquals(100, (int) run);
+        map.free(1);
+        assertEquals(102, map.allocate(), "Next-fit does not go back for a block freed behind it");
+        run = map.allocateRun(50); // a run stops at the end of the map
+        assertEquals(103, run >>> 32);
+        assertEquals(27, (int) run);
+        assertEquals(1, map.allocate(), "Then the search wraps around");
+        assertEquals(0, map.freeCount());
+        assertEquals(-1, map.allocateRun(1));
+
+        map.free(64);
+        map.free(65);
+        map.free(70);
+        assertEquals(64, map.nextFree(0));
+        assertEquals(66, map.nextUsed(64));
+        assertEquals(-1, map.nextFree(71));
+        run = map.allocateRun(10); // a run stops at the next used block
+        assertEquals(64, run >>> 32);
+        assertEquals(2, (int) run);
+
+        // A write that does not fit is turned down before it takes any block
+        File image = tempImage("bitmap");
+        FileSystemManager bfs = new FileSystemManager(image.getPath(), new Geometry(4, 200, 64), StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+        int dataBlocks = 200 - 28; // metadata takes 28 of the 200
+        bfs.createFile("a");
+        bfs.createFile("b");
+        bfs.writeFile("a", new byte[100 * 64]);
+        Exception ex = assertThrows(Exception.class, () -> bfs.writeFile("b", new byte[(dataBlocks - 100) * 64 + 1]));
+        assertTrue(ex.getMessage().contains("No free blocks"));
+        bfs.writeFile("b", new byte[(dataBlocks - 100) * 64]);
+        bfs.deleteFile("a");
+        for (int i = 0; i < 500 && bfs.getPendingReclaim() > 0; i++) Thread.sleep(10);
+        bfs.createFile("c");
+        bfs.writeFile("c", new byte[100 * 64]); // exactly the blocks a gave back
+        assertThrows(Exception.class, () -> bfs.writeFile("b", new byte[64]), "A rewrite needs room for its new copy");
+        bfs.close();
+    }
+
+    @Test
+    void testCachedExtentsFollowEveryChange() throws Exception {
+        byte[] content = new byte[4000];
+        for (int i = 0; i < content.length; i++) content[i] = (byte) (i * 11);
+        for (Layout layout : Layout.values()) {
+            File image = tempImage("extents-" + layout);
+            FileSystemManager efs = new FileSystemManager(image.getPath(), new Geometry(4, 300, 64), layout, StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+            efs.createFile("a");
+            efs.createFile("b");
+            efs.writeFile("a", Arrays.copyOf(content, 2000));
+            assertArrayEquals(Arrays.copyOf(content, 2000), efs.readFile("a")); // caches a's runs
+
+            // Shrinking, then growing past b, must not read through the runs cached before
+            efs.writeFile("a", Arrays.copyOf(content, 500));
+            assertArrayEquals(Arrays.copyOfRange(content, 400, 500), efs.readFile("a", 400, 1000), layout.name());
+            efs.writeFile("b", new byte[3000]);
+            efs.writeFile("a", content);
+            assertArrayEquals(content, efs.readFile("a"), layout.name());
+            assertArrayEquals(Arrays.copyOfRange(content, 450, 3450), efs.readFile("a", 450, 3000), layout.name());
+
+            // A committed upload replaces them too
+            byte[] uploaded = Arrays.copyOfRange(content, 1000, 2500);
+            UploadSession upload = efs.beginUpload("a");
+            efs.appendUpload(upload, uploaded, 0, uploaded.length);
+            efs.commitUpload(upload);
+            assertArrayEquals(uploaded, efs.readFile("a"), layout.name());
+
+            // A new file in a deleted file's slot starts with no runs at all
+            efs.deleteFile("a");
+            efs.createFile("c");
+            assertEquals(0, efs.readFile("c").length);
+            assertEquals(0, efs.readFile("c", 0, 100).length);
+            efs.writeFile("c", "fresh".getBytes());
+            assertArrayEquals("fresh".getBytes(), efs.readFile("c"), layout.name());
+            efs.close();
+
+            FileSystemManager remounted = new FileSystemManager(image.getPath(), 10 * 128);
+            assertArrayEquals("fresh".getBytes(), remounted.readFile("c"), layout.name());
+            assertArrayEquals(new byte[3000], remounted.readFile("b"), layout.name());
+            remounted.close();
+        }
+    }
+
+    @Test
+    void testEachOperationLeavesItsMetadataOnTheImage() throws Exception {
+        File image = tempImage("flushed");
+        File copy = tempImage("flushed-copy");
+        FileSystemManager live = new FileSystemManager(image.getPath(), new Geometry(8, 10_000, 64), StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+        byte[] content = new byte[8500 * 64]; // more FNodes than one 64KB metadata write holds
+        for (int i = 0; i < content.length; i++) content[i] = (byte) (i * 7);
+        live.createFile("a");
+        live.createFile("b");
+        live.createFile("gone");
+        live.writeFile("a", Arrays.copyOf(content, 100));
+        live.writeFile("b", "short".getBytes());
+        live.writeFile("a", content); // a continues after b's block, so its FNodes are two runs
+        live.writeFile("b", new byte[700]);
+        live.deleteFile("gone");
+
+        // No close: a mount finds only what each operation flushed as it ended
+        Files.copy(image.toPath(), copy.toPath());
+        FileSystemManager mounted = new FileSystemManager(copy.getPath(), 10 * 128);
+        assertArrayEquals(new String[]{"a", "b"}, mounted.listFiles());
+        assertArrayEquals(content, mounted.readFile("a"));
+        assertArrayEquals(new byte[700], mounted.readFile("b"));
+        mounted.close();
+        live.close();
+    }
+
+    @Test
+    void testSizeQueriesStayRightWhileWritersRun() throws Exception {
+        File image = tempImage("optimistic");
+        FileSystemManager ofs = new FileSystemManager(image.getPath(), new Geometry(16, 400, 64), StorageBackend.MAPPED, ForcePolicy.ON_CLOSE);
+        ofs.createFile("stable");
+        ofs.writeFile("stable", new byte[100]);
+
+        // The writer moves entries and index slots around under every lookup; a lookup that
+        // overlapped it must be redone, never answered from what it half read
+        Throwable[] failure = new Throwable[1];
+        Thread writer = new Thread(() -> {
+            try {
+                for (int round = 0; round < 2000; round++) {
+                    String name = "c" + (round % 6);
+                    ofs.createFile(name);
+                    ofs.lockWrite("stable");
+                    try {
+                        ofs.writeFile("stable", new byte[(round % 2 == 0) ? 5000 : 100]);
+                    } finally {
+                        ofs.unlockWrite("stable");
+                    }
+                    ofs.deleteFile(name);
+                }
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        });
+        writer.start();
+        long queries = 0;
+        while (writer.isAlive() || queries < 1000) {
+            int size = ofs.getFileSize("stable");
+            assertTrue(size == 100 || size == 5000, "size " + size);
+            try {
+                assertEquals(0, ofs.getFileSize("c" + (queries % 6)));
+            } catch (Exception missing) {
+                assertEquals("file does not exist", missing.getMessage());
+            }
+            queries++;
+        }
+        writer.join();
+        assertNull(failure[0]);
+        ofs.close();
+    }
+
+    // A path for a new image; nothing is there until a FileSystemManager formats it
+    private File tempImage(String name) {
+        return tempDir.resolve(name + ".dat").toFile();
+    }
+
+    private static void recreate(String name) throws Exception {
+        try {
+            fs.deleteFile(name);
+        } catch (Exception notThere) {
+            // left over from an earlier run or not, either is fine
+        }
+        fs.createFile(name);
+    }
 }
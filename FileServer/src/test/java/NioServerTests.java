@@ -0,0 +1,144 @@
+import ca.concordia.server.FileServer;
+import ca.concordia.server.ServerConfig;
+import ca.concordia.server.ServerEngine;
+import helpers.BinaryClient;
+import helpers.ClientRunner;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioServerTests {
+
+    static final int PORT = 12347;
+    static FileServer server;
+    static Thread serverThread;
+    static File image;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        image = File.createTempFile("nio", ".dat");
+        image.delete();
+        server = new FileServer(PORT, image.getPath(), 10 * 128, new ServerConfig().setEngine(ServerEngine.NIO).setReactorThreads(2));
+        serverThread = new Thread(server::start);
+        serverThread.start();
+        for (int i = 0; i < 50; i++) {
+            try (Socket probe = new Socket("localhost", PORT)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        fail("NIO server did not start");
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        server.stop();
+        serverThread.join(5000);
+        image.delete();
+    }
+
+    @Test
+    void testSameProtocolAsBlockingEngine() throws Exception {
+        ClientRunner.send(PORT, "DELETE nio");
+        assertEquals("SUCCESS: File 'nio' created.", ClientRunner.send(PORT, "CREATE nio"));
+        assertEquals("SUCCESS: Written to file 'nio'.", ClientRunner.send(PORT, "WRITE nio over nio"));
+        assertEquals("SUCCESS: Read from file 'nio': over nio", ClientRunner.send(PORT, "READ nio"));
+        assertTrue(ClientRunner.send(PORT, "LIST").contains("nio"));
+        assertEquals("ERROR: Unknown command.", ClientRunner.send(PORT, "BADCOMMAND"));
+        assertTrue(ClientRunner.send(PORT, "READ").startsWith("ERROR"));
+    }
+
+    @Test
+    void testSessionKeepsOrderUntilQuit() throws Exception {
+        try (Socket s = new Socket("localhost", PORT);
+             PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+            out.println("LIST");
+            assertTrue(in.readLine().startsWith("SUCCESS: Files:"));
+            out.println("READ missing");
+            assertTrue(in.readLine().startsWith("ERROR"));
+            out.println("QUIT");
+            assertEquals("SUCCESS: Disconnecting.", in.readLine());
+            assertNull(in.readLine(), "Server should close the connection after QUIT");
+        }
+    }
+
+    @Test
+    void testPipelinedCommandsAnsweredInOrder() throws Exception {
+        List<String> commands = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            commands.add(i % 2 == 0 ? "LIST" : "READ missing" + i);
+        }
+        List<String> responses = ClientRunner.sendPipelined(PORT, commands);
+        assertEquals(commands.size(), responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            String expected = i % 2 == 0 ? "SUCCESS: Files:" : "ERROR";
+            assertTrue(responses.get(i).startsWith(expected), "Reply " + i + " out of order: " + responses.get(i));
+        }
+    }
+
+    @Test
+    void testBinaryProtocolRoundTripsArbitraryBytes() throws Exception {
+        byte[] blob = {0, 1, '\n', '\r', (byte) 0xff, 'x', 0};
+        try (BinaryClient client = new BinaryClient(PORT)) {
+            assertEquals(0, client.request(1, "nbin", new byte[0])[0], "CREATE should succeed");
+            assertEquals(0, client.request(2, "nbin", blob)[0], "WRITE should succeed");
+            byte[] read = client.request(3, "nbin", new byte[0]);
+            assertEquals(0, read[0], "READ should succeed");
+            assertArrayEquals(blob, Arrays.copyOfRange(read, 1, read.length));
+            assertEquals(1, client.request(3, "missing", new byte[0])[0], "READ of a missing file should fail");
+            assertEquals(0, client.request(4, "nbin", new byte[0])[0], "DELETE should succeed");
+        }
+        try (BinaryClient client = new BinaryClient(PORT)) {
+            byte[] refused = client.request(1, "n".repeat(300), new byte[0]);
+            assertEquals(1, refused[0], "An oversized frame should get an error before the hang-up");
+            assertTrue(new String(refused, 1, refused.length - 1, StandardCharsets.UTF_8).contains("exceeds"));
+        }
+    }
+
+    @Test
+    void testChunkedUploadOverTextProtocol() throws Exception {
+        ClientRunner.send(PORT, "CREATE up");
+        List<String> responses = ClientRunner.sendPipelined(PORT, List.of(
+                "BEGIN up", "CHUNK first part, ", "CHUNK second part", "COMMIT", "READ up"));
+        assertTrue(responses.get(0).startsWith("SUCCESS"), responses.get(0));
+        assertEquals("SUCCESS: Written to file 'up'.", responses.get(3));
+        assertEquals("SUCCESS: Read from file 'up': first part, second part", responses.get(4));
+        assertTrue(ClientRunner.send(PORT, "COMMIT").startsWith("ERROR"), "COMMIT without BEGIN should fail");
+        ClientRunner.send(PORT, "DELETE up");
+    }
+
+    @Test
+    void testHandlesHundredsOfClients() throws Exception {
+        int n = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(20);
+        CountDownLatch latch = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            pool.submit(() -> {
+                try {
+                    if (ClientRunner.send(PORT, "LIST").startsWith("SUCCESS")) latch.countDown();
+                } catch (IOException ignored) {}
+            });
+        }
+        assertTrue(latch.await(15, TimeUnit.SECONDS), "NIO engine did not answer every client");
+        pool.shutdownNow();
+    }
+}
@@ -1,3 +1,8 @@
+import ca.concordia.server.CommandLine;
+import ca.concordia.server.FileServer;
+import ca.concordia.server.ServerConfig;
+import ca.concordia.server.ServerLog;
+import helpers.BinaryClient;
 import helpers.ClientRunner;
 import helpers.ServerRunner;
 import org.junit.jupiter.api.AfterAll;
@@ -5,7 +10,18 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -41,6 +57,14 @@ public class ServerTests {
         assertNotNull(ok, "Server did not respond after error");
     }
 
+    @Test
+    void testStatsReportsAdmissionCounters() throws Exception {
+        String res = ClientRunner.send("STATS");
+        assertTrue(res.startsWith("SUCCESS"), "STATS should succeed");
+        assertTrue(res.contains("rejected="), "STATS should report rejections");
+        assertTrue(res.contains("queued="), "STATS should report queue depth");
+    }
+
     @Test
     void testMalformedInputDoesNotCrashServer() throws Exception {
         for (String cmd : new String[]{"", "BADCOMMAND", "CREATE", "WRITE", "READ", "DELETE"}) {
@@ -71,6 +95,165 @@ public class ServerTests {
         assertTrue(latch.await(15, TimeUnit.SECONDS), "Server scaled poorly under 100 clients");
     }
 
+    @Test
+    void testPipelinedCommandsAnsweredInOrder() throws Exception {
+        List<String> commands = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            commands.add(i % 2 == 0 ? "LIST" : "READ missing" + i);
+        }
+        List<String> responses = ClientRunner.sendPipelined(12345, commands);
+        assertEquals(commands.size(), responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            String expected = i % 2 == 0 ? "SUCCESS: Files:" : "ERROR";
+            assertTrue(responses.get(i).startsWith(expected), "Reply " + i + " out of order: " + responses.get(i));
+        }
+    }
+
+    @Test
+    void testDurabilityIsChosenPerConnection() throws Exception {
+        List<String> responses = ClientRunner.sendPipelined(12345, List.of(
+                "DURABLE sync", "LIST", "DURABLE sometimes", "DURABLE batched", "DURABLE"));
+        assertEquals("SUCCESS: Durability set to sync.", responses.get(0));
+        assertTrue(responses.get(1).startsWith("SUCCESS: Files:"), responses.get(1));
+        assertTrue(responses.get(2).startsWith("ERROR: Unknown durability"), responses.get(2));
+        assertEquals("SUCCESS: Durability set to batched.", responses.get(3));
+        assertTrue(responses.get(4).startsWith("ERROR: Durability required"), responses.get(4));
+        assertEquals("SUCCESS: Durability set to async.", ClientRunner.send("DURABLE default"));
+    }
+
+    @Test
+    void testBinaryProtocolRoundTripsArbitraryBytes() throws Exception {
+        // Own server on a fresh image: the shared one only has five file slots
+        File image = File.createTempFile("binary", ".dat");
+        image.delete();
+        FileServer binaryServer = new FileServer(12348, image.getPath(), 10 * 128);
+        Thread serverThread = new Thread(binaryServer::start);
+        serverThread.start();
+
+        byte[] blob = {0, 1, '\n', '\r', (byte) 0xff, 'x', 0};
+        try (BinaryClient client = connectBinary(12348)) {
+            assertEquals(0, client.request(1, "bin", new byte[0])[0], "CREATE should succeed");
+            assertEquals(0, client.request(2, "bin", blob)[0], "WRITE should succeed");
+            byte[] read = client.request(3, "bin", new byte[0]);
+            assertEquals(0, read[0], "READ should succeed");
+            assertArrayEquals(blob, Arrays.copyOfRange(read, 1, read.length));
+            assertEquals(1, client.request(3, "missing", new byte[0])[0], "READ of a missing file should fail");
+            assertEquals(0, client.request(4, "bin", new byte[0])[0], "DELETE should succeed");
+        }
+        try (BinaryClient client = connectBinary(12348)) {
+            byte[] refused = client.request(1, "n".repeat(300), new byte[0]);
+            assertEquals(1, refused[0], "An oversized frame should get an error before the hang-up");
+            assertTrue(new String(refused, 1, refused.length - 1, StandardCharsets.UTF_8).contains("exceeds"));
+        } finally {
+            binaryServer.stop();
+            serverThread.join(5000);
+            image.delete();
+        }
+    }
+
+    @Test
+    void testRepeatedReadsAreServedFromTheBlockCache() throws Exception {
+        File image = File.createTempFile("cached", ".dat");
+        image.delete();
+        FileServer cachedServer = new FileServer(12349, image.getPath(), 64 * 1024,
+                new ServerConfig().setCacheBytes(64L * 1024));
+        Thread serverThread = new Thread(cachedServer::start);
+        serverThread.start();
+
+        String content = "cached-".repeat(100);
+        try (Socket socket = connectWithRetry(12349)) {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out.println("CREATE hot");
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            out.println("WRITE hot " + content);
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            for (int i = 0; i < 3; i++) {
+                out.println("READ hot");
+                assertEquals("SUCCESS: Read from file 'hot': " + content, in.readLine());
+            }
+            out.println("STATS");
+            long hits = statCounter(in.readLine(), "cacheHits");
+            assertTrue(hits >= 2, "Repeated READs should hit the cache, got " + hits);
+        }
+        try (BinaryClient client = connectBinary(12349)) {
+            byte[] read = client.request(3, "hot", new byte[0]);
+            assertEquals(content, new String(read, 1, read.length - 1, StandardCharsets.UTF_8));
+            byte[] stats = client.request(7, "", new byte[0]);
+            long hits = statCounter(new String(stats, 1, stats.length - 1, StandardCharsets.US_ASCII), "cacheHits");
+            assertTrue(hits >= 3, "Binary READs should hit the cache too, got " + hits);
+        } finally {
+            cachedServer.stop();
+            serverThread.join(5000);
+            image.delete();
+        }
+    }
+
+    private static long statCounter(String stats, String name) {
+        for (String field : stats.split(" ")) {
+            if (field.startsWith(name + "=")) return Long.parseLong(field.substring(name.length() + 1));
+        }
+        throw new AssertionError("No " + name + " in " + stats);
+    }
+
+    private static Socket connectWithRetry(int port) throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                return new Socket("localhost", port);
+            } catch (IOException e) {
+                if (i > 50) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static BinaryClient connectBinary(int port) throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                return new BinaryClient(port);
+            } catch (IOException e) {
+                if (i > 50) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    @Test
+    void testCommandLogIsSampledAndSilentWhenDisabled() {
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        PrintStream target = new PrintStream(captured, true);
+        try {
+            ServerLog.configure(ServerLog.Level.INFO, 1, target);
+            for (int i = 0; i < 1000; i++) ServerLog.command("LIST");
+            ServerLog.flush();
+            assertEquals(0, captured.size(), "Debug lines must not be written at info level");
+
+            ServerLog.configure(ServerLog.Level.DEBUG, 10, target);
+            for (int i = 0; i < 1000; i++) ServerLog.command("LIST");
+            ServerLog.flush();
+            long lines = captured.toString().lines().filter(l -> l.contains("Received from client: LIST")).count();
+            assertTrue(lines > 30 && lines < 300, "Expected roughly 1 in 10 commands logged, got " + lines);
+        } finally {
+            ServerLog.configure(ServerLog.Level.INFO, 1, System.out);
+        }
+    }
+
+    @Test
+    void testCommandLineTokenizesLikeSplit() {
+        String[] lines = {"LIST", "  read  a.txt", "WRITE a.txt hello  world ", "write\ta b", "CREATE ", "", "DELETE a b c"};
+        CommandLine command = new CommandLine();
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            command.parse(bytes, bytes.length);
+            String[] parts = line.trim().split(" ", 3);
+            assertEquals(parts.length - 1, command.argumentCount(), line);
+            assertEquals(parts.length > 1 ? parts[1] : null, command.name(), line);
+            assertEquals(parts.length > 2 ? parts[2] : null,
+                    command.rest() == null ? null : new String(command.rest(), StandardCharsets.UTF_8), line);
+            assertEquals(CommandLine.key(parts[0]), command.key(), line);
+        }
+    }
+
     @Test
     void testServerRestartPersistence() throws Exception {
         // Step 1: Start server
@@ -1,10 +1,22 @@
 //package tests;
 
+import ca.concordia.server.ExecutionMode;
+import ca.concordia.server.FileServer;
+import ca.concordia.server.RequestGate;
+import ca.concordia.server.ServerConfig;
+import ca.concordia.server.ServerStats;
 import helpers.*;
 import org.junit.jupiter.api.*;
 
 //import java.io.IOException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
 import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class ThreadManagementTests {
@@ -115,9 +127,117 @@ public class ThreadManagementTests {
         assertTrue(finished, "Possible deadlock: not all threads finished");
     }
 
+    @Test
+    void testFullQueueRejectsWithBusy() throws Exception {
+        // One running request and one queue place: the first runs, the second waits, the third is turned away
+        ServerStats stats = new ServerStats();
+        RequestGate gate = new RequestGate(new ServerConfig().setPoolSize(1).setQueueCapacity(1).setQueueMillis(10_000), stats);
+        assertTrue(gate.enter(), "First request should run");
+        CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(gate::enter);
+        assertTrue(waitFor(() -> stats.getQueueDepth() == 1), "Second request should be queued");
+        assertFalse(gate.enter(), "Third request should find the queue full");
+        assertEquals(1, stats.getRejected());
+        gate.exit();
+        assertTrue(waiting.get(5, TimeUnit.SECONDS), "Second request should run once the first is done");
+        assertEquals(0, stats.getQueueDepth());
+
+        // A request does not wait longer than queueMillis for its turn
+        RequestGate impatient = new RequestGate(new ServerConfig().setPoolSize(1).setQueueMillis(50), stats);
+        assertTrue(impatient.enter());
+        long start = System.nanoTime();
+        assertFalse(impatient.enter());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(2, stats.getRejected());
+        assertEquals(0, stats.getQueueDepth());
+        impatient.exit();
+        gate.exit();
+    }
 
+    @Test
+    void testPlatformModeServesMoreConnectionsThanRunningRequests() throws Exception {
+        // Connections never queue for a thread: with one running request all three clients are answered
+        File image = File.createTempFile("busy", ".dat");
+        image.delete();
+        ServerConfig config = new ServerConfig().setMode(ExecutionMode.PLATFORM).setPoolSize(1).setQueueCapacity(1);
+        FileServer busyServer = new FileServer(12346, image.getPath(), 10 * 128, config);
+        Thread serverThread = new Thread(busyServer::start);
+        serverThread.start();
+
+        try (Socket first = connectWithRetry(12346);
+             Socket second = new Socket("localhost", 12346);
+             Socket third = new Socket("localhost", 12346)) {
+            for (Socket client : new Socket[]{first, second, third}) {
+                PrintWriter out = new PrintWriter(client.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+                out.println("LIST");
+                assertTrue(in.readLine().startsWith("SUCCESS"), "Every client should be served");
+            }
+            assertEquals(3, busyServer.getStats().getActiveConnections());
+            assertEquals(0, busyServer.getStats().getRejected());
+        } finally {
+            busyServer.stop();
+            serverThread.join(5000);
+            image.delete();
+        }
+    }
 
+    @Test
+    void testStopLetsConnectionsEndBeforeClosingTheImage() throws Exception {
+        File image = File.createTempFile("stopping", ".dat");
+        image.delete();
+        FileServer stopping = new FileServer(12347, image.getPath(), 10 * 128, new ServerConfig());
+        Thread serverThread = new Thread(stopping::start);
+        serverThread.start();
+
+        try (Socket idle = connectWithRetry(12347)) {
+            PrintWriter out = new PrintWriter(idle.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(idle.getInputStream()));
+            out.println("CREATE kept");
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+
+            // The idle connection is ended rather than waited on for the whole grace period
+            long start = System.nanoTime();
+            stopping.stop();
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4), "stop() should not wait out an idle client");
+            assertNull(in.readLine(), "The connection should be closed by the server");
+            assertEquals(0, stopping.getStats().getActiveConnections());
+        } finally {
+            serverThread.join(5000);
+        }
 
+        FileServer reopened = new FileServer(12347, image.getPath(), 10 * 128, new ServerConfig());
+        try {
+            Thread restarted = new Thread(reopened::start);
+            restarted.start();
+            try (Socket client = connectWithRetry(12347)) {
+                PrintWriter out = new PrintWriter(client.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+                out.println("LIST");
+                assertEquals("SUCCESS: Files: kept", in.readLine());
+            }
+            reopened.stop();
+            restarted.join(5000);
+        } finally {
+            image.delete();
+        }
+    }
 
+    private static Socket connectWithRetry(int port) throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                return new Socket("localhost", port);
+            } catch (IOException e) {
+                if (i > 50) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
 
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            if (condition.getAsBoolean()) return true;
+            Thread.sleep(100);
+        }
+        return false;
+    }
 }
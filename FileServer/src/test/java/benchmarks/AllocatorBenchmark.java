@@ -0,0 +1,83 @@
+package benchmarks;
+
+import ca.concordia.filesystem.BlockBitmap;
+
+import java.util.Random;
+
+/**
+ * Cost of allocating one block on images with millions of blocks, at several fill levels.
+ * Every step frees a random used block and then allocates one, the way a rewrite does.
+ * "boolean[]" is the allocator writeFile used to have: count every free block, then scan
+ * from the first data block for a free one. "bitmap" is BlockBitmap.allocate(): read the
+ * running count, then next-fit from the previous allocation, skipping used words whole.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.AllocatorBenchmark
+ */
+public class AllocatorBenchmark {
+
+    public static void main(String[] args) {
+        int[] sizes = {1 << 20, 1 << 22, 1 << 24};
+        double[] fills = {0.5, 0.9, 0.99};
+        for (int blocks : sizes) {
+            for (double fill : fills) {
+                boolean[] freelist = new boolean[blocks];
+                BlockBitmap bitmap = new BlockBitmap(blocks);
+                Random random = new Random(42);
+                for (int i = 1; i < blocks; i++) { // block 0 is metadata
+                    if (random.nextDouble() >= fill) {
+                        freelist[i] = true;
+                        bitmap.free(i);
+                    }
+                }
+                int steps = 2_000;
+                double oldNs = run(steps, blocks, new Random(7), i -> freelist[i] = true, () -> allocateScan(freelist),
+                        i -> !freelist[i]);
+                double newNs = run(steps * 100, blocks, new Random(7), bitmap::free, () -> allocateBitmap(bitmap),
+                        i -> !bitmap.isFree(i));
+                System.out.printf("%,11d blocks  %3.0f%% full  boolean[] %,12.1f ns/block  bitmap %,8.1f ns/block%n",
+                        blocks, fill * 100, oldNs, newNs);
+            }
+        }
+    }
+
+    interface Free { void free(int block); }
+    interface Allocate { int allocate(); }
+    interface Used { boolean used(int block); }
+
+    private static double run(int steps, int blocks, Random random, Free free, Allocate allocate, Used used) {
+        long start = System.nanoTime();
+        long sink = 0;
+        for (int s = 0; s < steps; s++) {
+            int victim;
+            do {
+                victim = 1 + random.nextInt(blocks - 1);
+            } while (!used.used(victim));
+            free.free(victim);
+            sink += allocate.allocate();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == 42) System.out.println();
+        return (double) elapsed / steps;
+    }
+
+    // writeFile before the bitmap: count free blocks, then first fit from the first data block
+    private static int allocateScan(boolean[] freelist) {
+        int freeblocks = 0;
+        for (int i = 1; i < freelist.length; i++) {
+            if (freelist[i]) freeblocks++;
+        }
+        if (freeblocks == 0) return -1;
+        for (int i = 1; i < freelist.length; i++) {
+            if (freelist[i]) {
+                freelist[i] = false;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int allocateBitmap(BlockBitmap bitmap) {
+        return bitmap.allocate();
+    }
+}
@@ -0,0 +1,98 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.StorageBackend;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * READs of 4KB files per second with the block cache off and at 8 MB, on 128-byte blocks. The
+ * files read are either 64 (fits the cache) or 4096 (16 MB, twice the cache); a quarter of the
+ * reads in the large set go to its first 256 files, so CLOCK has hot blocks worth keeping.
+ * Reader threads hold lockRead as the server does.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.BlockCacheBenchmark [seconds]
+ */
+public class BlockCacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        for (int files : new int[]{64, 4096}) {
+            for (int threads : new int[]{1, 4}) {
+                for (long cache : new long[]{0, 8 << 20}) {
+                    run(files, threads, cache, seconds);
+                }
+            }
+        }
+    }
+
+    private static void run(int files, int threads, long cacheBytes, double seconds) throws Exception {
+        Path image = Files.createTempFile("cache", ".dat");
+        Files.delete(image);
+        try {
+            FileSystemManager fs = new FileSystemManager(image.toString(), new Geometry(files, files * 40 + 1024, 128),
+                    StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+            byte[] content = new byte[4096];
+            for (int i = 0; i < files; i++) {
+                fs.createFile("f" + i);
+                fs.writeFile("f" + i, content);
+            }
+            fs.setBlockCacheBytes(cacheBytes);
+
+            AtomicBoolean done = new AtomicBoolean();
+            CountDownLatch start = new CountDownLatch(1);
+            LongAdder reads = new LongAdder();
+            Thread[] readers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                readers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    try {
+                        start.await();
+                        while (!done.get()) {
+                            int pick = (files > 256 && random.nextInt(4) == 0) ? random.nextInt(256) : random.nextInt(files);
+                            String name = "f" + pick;
+                            fs.lockRead(name);
+                            try {
+                                fs.readFile(name);
+                            } finally {
+                                fs.unlockRead(name);
+                            }
+                            reads.increment();
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                readers[t].start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            Thread.sleep((long) (seconds * 1000));
+            done.set(true);
+            for (Thread reader : readers) reader.join();
+            double elapsed = (System.nanoTime() - begin) / 1e9;
+
+            long lookups = fs.getCacheHits() + fs.getCacheMisses();
+            System.out.printf("%4d files  %d threads  cache %4d KB  %,9.0f reads/s  hit ratio %s%n",
+                    files, threads, cacheBytes >> 10, reads.sum() / elapsed,
+                    lookups == 0 ? "-" : String.format("%.2f", (double) fs.getCacheHits() / lookups));
+
+            fs.lockWrite();
+            try {
+                fs.close();
+            } finally {
+                fs.unlockWrite();
+            }
+        } finally {
+            Files.deleteIfExists(image);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.Layout;
+import ca.concordia.filesystem.StorageBackend;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Heap allocation and time of repeated READs of the same hot files in a chained image whose
+ * chains are fragmented (every other block belongs to another file). "full" is readFile of the
+ * whole file and reports bytes allocated beyond the returned array; "64B" is a 64-byte ranged
+ * read, where everything allocated apart from the small result is chain bookkeeping.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.ChainCacheBenchmark
+ */
+public class ChainCacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {4 << 10, 64 << 10, 1 << 20};
+        for (int size : sizes) {
+            Path image = Files.createTempFile("chain", ".dat");
+            Files.delete(image);
+            try {
+                int blocks = 3 * (size / 128) + 1024; // two files plus the FNode table
+                FileSystemManager fs = new FileSystemManager(image.toString(), new Geometry(4, blocks, 128),
+                        Layout.CHAINED, StorageBackend.MAPPED, ForcePolicy.ON_CLOSE);
+                fs.createFile("hot");
+                fs.createFile("other");
+                // Growing both files one block at a time interleaves their chains
+                for (int length = 128; length <= size; length += 128) {
+                    fs.writeFile("hot", new byte[length]);
+                    fs.writeFile("other", new byte[length]);
+                }
+
+                int reads = Math.max(2_000, 200_000_000 / size);
+                for (int round = 0; round < 2; round++) { // first round warms up
+                    long bytes = allocated();
+                    long start = System.nanoTime();
+                    for (int i = 0; i < reads; i++) fs.readFile("hot");
+                    double fullNs = (double) (System.nanoTime() - start) / reads;
+                    double fullBytes = (double) (allocated() - bytes) / reads - (16 + size);
+
+                    int ranged = reads * 10;
+                    bytes = allocated();
+                    start = System.nanoTime();
+                    for (int i = 0; i < ranged; i++) fs.readFile("hot", size / 2, 64);
+                    double rangeNs = (double) (System.nanoTime() - start) / ranged;
+                    double rangeBytes = (double) (allocated() - bytes) / ranged - (16 + 64);
+                    if (round == 1) {
+                        System.out.printf("%,9d-byte file  full %,12.0f ns %,10.0f B extra  64B %,10.0f ns %,10.0f B extra%n",
+                                size, fullNs, fullBytes, rangeNs, rangeBytes);
+                    }
+                }
+                fs.close();
+            } finally {
+                Files.deleteIfExists(image);
+            }
+        }
+    }
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
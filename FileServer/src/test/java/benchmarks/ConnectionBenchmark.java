@@ -0,0 +1,114 @@
+package benchmarks;
+
+import ca.concordia.server.ExecutionMode;
+import ca.concordia.server.FileServer;
+import ca.concordia.server.ServerConfig;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds N idle connections open against an in-process server, then measures how quickly
+ * fresh clients get a LIST answered. Reports memory per idle connection and accept latency
+ * for each execution mode.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.ConnectionBenchmark 2000
+ */
+public class ConnectionBenchmark {
+
+    private static final int PORT = 12399;
+
+    public static void main(String[] args) throws Exception {
+        int idle = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int probes = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            run(mode, idle, probes);
+        }
+    }
+
+    private static void run(ExecutionMode mode, int idle, int probes) throws Exception {
+        Path image = Files.createTempFile("bench", ".dat");
+        Files.delete(image);
+        FileServer server = new FileServer(PORT, image.toString(), 10 * 128, new ServerConfig().setMode(mode));
+        Thread serverThread = new Thread(server::start, "bench-server");
+        serverThread.start();
+        waitForPort();
+
+        long rssBefore = residentBytes();
+        long heapBefore = usedHeap();
+        List<Socket> held = new ArrayList<>();
+        for (int i = 0; i < idle; i++) {
+            held.add(new Socket("localhost", PORT));
+        }
+        Thread.sleep(500); // let the server pick up every connection
+        long rssAfter = residentBytes();
+        long heapAfter = usedHeap();
+
+        long[] latencies = new long[probes];
+        int served = 0;
+        for (int i = 0; i < probes; i++) {
+            long start = System.nanoTime();
+            try (Socket s = new Socket("localhost", PORT);
+                 PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+                s.setSoTimeout(50);
+                out.println("LIST");
+                if (in.readLine() != null) served++;
+            } catch (Exception timedOut) {
+                // counted as not served
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+
+        for (Socket s : held) s.close();
+        server.stop();
+        serverThread.join();
+        new File(image.toString()).delete();
+
+        long rssDelta = Math.max(1, rssAfter - rssBefore);
+        long heapDelta = Math.max(1, heapAfter - heapBefore);
+        System.out.printf("%-8s idle=%d  rss/conn=%,d B  heap/conn=%,d B  conns/GB(rss)=%,d  served=%d/%d  p50=%.2f ms  p99=%.2f ms%n",
+                mode, idle, rssDelta / idle, heapDelta / idle, (1L << 30) / Math.max(1, rssDelta / idle),
+                served, probes, latencies[probes / 2] / 1e6, latencies[probes * 99 / 100] / 1e6);
+    }
+
+    private static void waitForPort() throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress("localhost", PORT), 200);
+                return;
+            } catch (Exception e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start");
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static long residentBytes() throws Exception {
+        Path status = Path.of("/proc/self/status");
+        if (!Files.exists(status)) return usedHeap();
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+            }
+        }
+        return usedHeap();
+    }
+}
@@ -0,0 +1,114 @@
+package benchmarks;
+
+import ca.concordia.filesystem.Durability;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.StorageBackend;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Latency and throughput of each durability mode: every client thread rewrites its own file with
+ * 4KB, timing each operation, for async, batched (10 ms / 64 operations) and sync, on an image
+ * without a journal (on_close) and with one (journal), at 1 and 16 clients.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.DurabilityBenchmark [seconds]
+ */
+public class DurabilityBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+
+        for (ForcePolicy policy : new ForcePolicy[]{ForcePolicy.ON_CLOSE, ForcePolicy.JOURNAL}) {
+            for (int threads : new int[]{1, 16}) {
+                for (Durability durability : Durability.values()) {
+                    run(policy, durability, threads, seconds);
+                }
+            }
+        }
+    }
+
+    private static void run(ForcePolicy policy, Durability durability, int threads, double seconds) throws Exception {
+        Path image = Files.createTempFile("durability", ".dat");
+        Files.delete(image);
+        try {
+            FileSystemManager fs = new FileSystemManager(image.toString(), new Geometry(threads, threads * 128 + 1024, 128),
+                    StorageBackend.FILE, policy);
+            fs.setDurability(durability);
+            fs.setBatchWindow(10, 64);
+            byte[] content = new byte[4096];
+            for (int t = 0; t < threads; t++) fs.createFile("c" + t);
+
+            AtomicBoolean done = new AtomicBoolean();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            long[][] latencies = new long[threads][];
+            int[] counts = new int[threads];
+            Throwable[] failure = new Throwable[1];
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                String name = "c" + t;
+                workers[t] = new Thread(() -> {
+                    long[] samples = new long[1 << 16];
+                    int count = 0;
+                    try {
+                        start.await();
+                        while (!done.get()) {
+                            long begin = System.nanoTime();
+                            fs.lockWrite(name);
+                            try {
+                                fs.writeFile(name, content);
+                            } finally {
+                                fs.unlockWrite(name);
+                            }
+                            if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+                            samples[count++] = System.nanoTime() - begin;
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                        done.set(true);
+                    }
+                    latencies[id] = samples;
+                    counts[id] = count;
+                });
+                workers[t].start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            Thread.sleep((long) (seconds * 1000));
+            done.set(true);
+            for (Thread worker : workers) worker.join();
+            double elapsed = (System.nanoTime() - begin) / 1e9;
+            if (failure[0] != null) throw new RuntimeException(failure[0]);
+
+            int total = 0;
+            for (int count : counts) total += count;
+            long[] all = new long[total];
+            int at = 0;
+            for (int t = 0; t < threads; t++) {
+                System.arraycopy(latencies[t], 0, all, at, counts[t]);
+                at += counts[t];
+            }
+            Arrays.sort(all);
+            System.out.printf("%-8s %-7s %2d clients  %,9.0f ops/s  p50 %,8.1f us  p99 %,8.1f us%n",
+                    policy.name().toLowerCase(), durability.name().toLowerCase(), threads, total / elapsed,
+                    all[total / 2] / 1e3, all[(int) (total * 0.99)] / 1e3);
+
+            fs.lockWrite();
+            try {
+                fs.close();
+            } finally {
+                fs.unlockWrite();
+            }
+        } finally {
+            Files.deleteIfExists(image);
+            Files.deleteIfExists(Path.of(image + ".journal"));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.StorageBackend;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Formats an image with room for N files (two blocks each), then times CREATE, WRITE (one
+ * block of content) and READ of every file. Shows how per-operation cost grows with the
+ * number of files once geometry is no longer fixed at five.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.GeometryBenchmark [mapped|file] 1000 100000 1000000
+ */
+public class GeometryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        StorageBackend backend = args.length > 0 ? StorageBackend.parse(args[0]) : StorageBackend.MAPPED;
+        int[] sizes = {1_000, 100_000, 1_000_000};
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) sizes[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        byte[] content = new byte[100];
+        for (int files : sizes) {
+            Path image = Files.createTempFile("geometry", ".dat");
+            Files.delete(image);
+            try {
+                // One file slot per two data blocks, plus the blocks the metadata itself takes
+                Geometry geometry = new Geometry(files, 2 * files + files / 2 + 16, 128);
+                FileSystemManager fs = new FileSystemManager(image.toString(), geometry, backend, ForcePolicy.ON_CLOSE);
+
+                long start = System.nanoTime();
+                for (int i = 0; i < files; i++) fs.createFile("f" + i);
+                report(backend, files, "CREATE", start);
+
+                start = System.nanoTime();
+                for (int i = 0; i < files; i++) fs.writeFile("f" + i, content);
+                report(backend, files, "WRITE", start);
+
+                start = System.nanoTime();
+                for (int i = 0; i < files; i++) fs.readFile("f" + i);
+                report(backend, files, "READ", start);
+                fs.close();
+            } finally {
+                Files.deleteIfExists(image);
+            }
+        }
+    }
+
+    private static void report(StorageBackend backend, int files, String operation, long start) {
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-6s %,10d files  %-6s %,12.0f ops/s  %,10.2f us/op%n",
+                backend.name().toLowerCase(), files, operation, files / elapsed, elapsed * 1e6 / files);
+    }
+}
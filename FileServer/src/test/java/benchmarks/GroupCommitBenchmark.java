@@ -0,0 +1,107 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.StorageBackend;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Durable operations per second: every client thread rewrites its own file with 4KB and the
+ * operation returns only once the change is on the device. Compared, from 1 to 64 clients:
+ *
+ *   on_write   forces the whole image at the end of each operation (no journal)
+ *   serial     journal, but operations take turns, so every record gets a commit of its own
+ *   grouped    journal with group commit: operations that finish together share one commit
+ *
+ * "forces/op" is journal commits per operation; each commit forces the image and the journal.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.GroupCommitBenchmark [seconds]
+ */
+public class GroupCommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        int[] clients = {1, 4, 16, 64};
+
+        for (int threads : clients) {
+            double onWrite = run(ForcePolicy.ON_WRITE, threads, seconds, false, null);
+            double[] serialForces = new double[1];
+            double serial = run(ForcePolicy.JOURNAL, threads, seconds, true, serialForces);
+            double[] groupedForces = new double[1];
+            double grouped = run(ForcePolicy.JOURNAL, threads, seconds, false, groupedForces);
+            System.out.printf("%2d clients  on_write %,8.0f ops/s  serial %,8.0f ops/s (%.2f forces/op)  grouped %,8.0f ops/s (%.2f forces/op)  %5.2fx%n",
+                    threads, onWrite, serial, serialForces[0], grouped, groupedForces[0], grouped / serial);
+        }
+    }
+
+    private static double run(ForcePolicy policy, int threads, double seconds, boolean oneAtATime, double[] forcesPerOp) throws Exception {
+        Path image = Files.createTempFile("groupcommit", ".dat");
+        Files.delete(image);
+        try {
+            FileSystemManager fs = new FileSystemManager(image.toString(), new Geometry(threads, threads * 128 + 1024, 128),
+                    StorageBackend.FILE, policy);
+            byte[] content = new byte[4096];
+            for (int t = 0; t < threads; t++) fs.createFile("c" + t);
+            long commitsBefore = fs.getJournalCommits();
+
+            ReentrantLock turns = new ReentrantLock();
+            AtomicBoolean done = new AtomicBoolean();
+            LongAdder ops = new LongAdder();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            Throwable[] failure = new Throwable[1];
+            for (int t = 0; t < threads; t++) {
+                String name = "c" + t;
+                workers[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                        long count = 0;
+                        while (!done.get()) {
+                            if (oneAtATime) turns.lock();
+                            fs.lockWrite(name);
+                            try {
+                                fs.writeFile(name, content);
+                            } finally {
+                                fs.unlockWrite(name);
+                                if (oneAtATime) turns.unlock();
+                            }
+                            count++;
+                        }
+                        ops.add(count);
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                        done.set(true);
+                    }
+                });
+                workers[t].start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            Thread.sleep((long) (seconds * 1000));
+            done.set(true);
+            for (Thread worker : workers) worker.join();
+            double elapsed = (System.nanoTime() - begin) / 1e9;
+            if (failure[0] != null) throw new RuntimeException(failure[0]);
+            if (forcesPerOp != null) forcesPerOp[0] = (double) (fs.getJournalCommits() - commitsBefore) / ops.sum();
+
+            fs.lockWrite();
+            try {
+                fs.close();
+            } finally {
+                fs.unlockWrite();
+            }
+            return ops.sum() / elapsed;
+        } finally {
+            Files.deleteIfExists(image);
+            Files.deleteIfExists(Path.of(image + ".journal"));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.StorageBackend;
+import ca.concordia.filesystem.datastructures.FEntry;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Filename lookup cost against directory size: getFileSize (a lookup and nothing else) on an
+ * image holding N files, next to the linear scan over the entry table that find_file_index
+ * used to do, run over an identical table. Lookups pick random existing names.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.IndexBenchmark 1000 100000 1000000
+ */
+public class IndexBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {1_000, 100_000, 1_000_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int files : sizes) {
+            Path image = Files.createTempFile("index", ".dat");
+            Files.delete(image);
+            try {
+                FileSystemManager fs = new FileSystemManager(image.toString(),
+                        new Geometry(files, files + files / 2 + 16, 128), StorageBackend.MAPPED, ForcePolicy.ON_CLOSE);
+                String[] names = new String[files];
+                FEntry[] table = new FEntry[files];
+                long start = System.nanoTime();
+                for (int i = 0; i < files; i++) {
+                    names[i] = "f" + i;
+                    fs.createFile(names[i]);
+                    table[i] = new FEntry(names[i], 0, -1);
+                }
+                double createUs = (System.nanoTime() - start) / 1e3 / files;
+
+                int lookups = 2_000_000;
+                for (int round = 0; round < 2; round++) { // first round warms up
+                    start = System.nanoTime();
+                    long sink = 0;
+                    for (int i = 0; i < lookups; i++) {
+                        sink += fs.getFileSize(names[ThreadLocalRandom.current().nextInt(files)]);
+                    }
+                    double indexNs = (double) (System.nanoTime() - start) / lookups;
+
+                    // The scan is O(n); fewer lookups keep the run short at large n
+                    int scans = (int) Math.max(100, Math.min(lookups, 2_000_000_000L / files / 10));
+                    start = System.nanoTime();
+                    for (int i = 0; i < scans; i++) {
+                        sink += scan(table, names[ThreadLocalRandom.current().nextInt(files)]);
+                    }
+                    double scanNs = (double) (System.nanoTime() - start) / scans;
+                    if (round == 1) {
+                        System.out.printf("%,10d files  create %,8.2f us  hash lookup %,8.1f ns  linear scan %,14.1f ns%s%n",
+                                files, createUs, indexNs, scanNs, sink == 42 ? " " : "");
+                    }
+                }
+                fs.close();
+            } finally {
+                Files.deleteIfExists(image);
+            }
+        }
+    }
+
+    // find_file_index before the hash index
+    private static int scan(FEntry[] inodeTable, String name) {
+        for (int i = 0; i < inodeTable.length; i++) {
+            if (inodeTable[i] != null && inodeTable[i].getFilename().equals(name)) return i;
+        }
+        return -1;
+    }
+}
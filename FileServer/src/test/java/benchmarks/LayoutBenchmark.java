@@ -0,0 +1,78 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.Layout;
+import ca.concordia.filesystem.StorageBackend;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * WRITE and READ throughput of large files in a chained image against an extent image, both
+ * with 128-byte blocks on the file backend, plus 4KB reads at random offsets (readFile with a
+ * range). Each size writes and reads 64MB worth of files, twice; the second round is reported.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.LayoutBenchmark [fileBytes...]
+ */
+public class LayoutBenchmark {
+
+    private static final long TOTAL = 64L << 20;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {1 << 20, 4 << 20, 16 << 20};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int size : sizes) {
+            int files = (int) Math.max(1, TOTAL / size);
+            byte[] content = new byte[size];
+            ThreadLocalRandom.current().nextBytes(content);
+            for (Layout layout : Layout.values()) {
+                Path image = Files.createTempFile("layout", ".dat");
+                Files.delete(image);
+                try {
+                    int blocks = (int) (TOTAL / 128) * 11 / 10 + 1024;
+                    FileSystemManager fs = new FileSystemManager(image.toString(),
+                            new Geometry(files, blocks, 128), layout, StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+                    for (int i = 0; i < files; i++) fs.createFile("f" + i);
+
+                    for (int round = 0; round < 2; round++) {
+                        long start = System.nanoTime();
+                        for (int i = 0; i < files; i++) fs.writeFile("f" + i, content);
+                        double write = mbPerSecond((long) files * size, start);
+
+                        start = System.nanoTime();
+                        long sink = 0;
+                        for (int i = 0; i < files; i++) sink += fs.readFile("f" + i).length;
+                        double read = mbPerSecond((long) files * size, start);
+
+                        int seeks = 20_000;
+                        start = System.nanoTime();
+                        for (int i = 0; i < seeks; i++) {
+                            int offset = ThreadLocalRandom.current().nextInt(size - 4096);
+                            sink += fs.readFile("f" + (i % files), offset, 4096).length;
+                        }
+                        double seekUs = (System.nanoTime() - start) / 1e3 / seeks;
+                        if (round == 1) {
+                            System.out.printf("%,11d-byte files  %-7s  write %,8.1f MB/s  read %,8.1f MB/s  4KB at offset %,9.1f us%s%n",
+                                    size, layout.name().toLowerCase(), write, read, seekUs, sink == 42 ? " " : "");
+                        }
+                    }
+                    fs.close();
+                } finally {
+                    Files.deleteIfExists(image);
+                }
+            }
+        }
+    }
+
+    private static double mbPerSecond(long bytes, long start) {
+        return bytes / 1e6 / ((System.nanoTime() - start) / 1e9);
+    }
+}
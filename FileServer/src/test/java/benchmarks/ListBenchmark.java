@@ -0,0 +1,76 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.StorageBackend;
+import ca.concordia.server.CommandLine;
+import ca.concordia.server.CommandProcessor;
+import ca.concordia.server.ServerStats;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Cost of answering LIST up to the bytes handed to the socket, against directory size.
+ * "rebuild" is the path every LIST used to take: listFiles, a StringBuilder over the names,
+ * then encoding the line. "snapshot" is what the engines do now: check for LIST and write the
+ * response encoded for the current directory snapshot. Also reports heap bytes per LIST.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.ListBenchmark
+ */
+public class ListBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        byte[] line = "LIST".getBytes(StandardCharsets.US_ASCII);
+        for (int files : new int[]{16, 256, 4096}) {
+            Path image = Files.createTempFile("list", ".dat");
+            Files.delete(image);
+            try {
+                FileSystemManager fs = new FileSystemManager(image.toString(), new Geometry(files, files + 1024, 128),
+                        StorageBackend.MAPPED, ForcePolicy.ON_CLOSE);
+                for (int i = 0; i < files; i++) fs.createFile("file" + i);
+                CommandProcessor processor = new CommandProcessor(fs, new ServerStats());
+                CommandLine command = new CommandLine();
+
+                int lists = 20_000_000 / files;
+                for (int round = 0; round < 2; round++) { // first round warms up
+                    long sink = 0;
+                    long bytes = allocated();
+                    long start = System.nanoTime();
+                    for (int i = 0; i < lists; i++) {
+                        String[] names = fs.listFiles();
+                        StringBuilder response = new StringBuilder("SUCCESS: Files:");
+                        for (String name : names) response.append(" ").append(name);
+                        sink += (response + "\n").getBytes(StandardCharsets.UTF_8).length;
+                    }
+                    double rebuildNs = (double) (System.nanoTime() - start) / lists;
+                    double rebuildBytes = (double) (allocated() - bytes) / lists;
+
+                    bytes = allocated();
+                    start = System.nanoTime();
+                    for (int i = 0; i < lists; i++) {
+                        command.parse(line, line.length);
+                        if (CommandProcessor.isList(command)) sink += processor.listResponse().length;
+                    }
+                    double snapshotNs = (double) (System.nanoTime() - start) / lists;
+                    double snapshotBytes = (double) (allocated() - bytes) / lists;
+                    if (round == 1) {
+                        System.out.printf("%,6d files  rebuild %,10.0f ns %,9.0f B  snapshot %,6.1f ns %,5.0f B%s%n",
+                                files, rebuildNs, rebuildBytes, snapshotNs, snapshotBytes, sink == 42 ? " " : "");
+                    }
+                }
+                fs.close();
+            } finally {
+                Files.deleteIfExists(image);
+            }
+        }
+    }
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
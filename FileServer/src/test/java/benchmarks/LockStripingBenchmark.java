@@ -0,0 +1,122 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.StorageBackend;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Mixed workload, 80% READ and 20% WRITE of 4KB to random files out of 256, from 1 to 64
+ * client threads. "global" wraps every operation in one fair read-write lock, which is how the
+ * server locked before per-file locks; "striped" takes lockRead/lockWrite(filename) like the
+ * server does now. Run once with on_close (page cache only) and once with on_write, where each
+ * WRITE ends with a force.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.LockStripingBenchmark [on_close|on_write] [seconds]
+ */
+public class LockStripingBenchmark {
+
+    private static final int FILES = 256;
+
+    public static void main(String[] args) throws Exception {
+        ForcePolicy[] policies = args.length > 0 ? new ForcePolicy[]{ForcePolicy.parse(args[0])} : ForcePolicy.values();
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        int[] clients = {1, 2, 4, 8, 16, 32, 64};
+
+        for (ForcePolicy policy : policies) {
+            Path image = Files.createTempFile("striping", ".dat");
+            Files.delete(image);
+            try {
+                FileSystemManager fs = new FileSystemManager(image.toString(), new Geometry(FILES, 64 * 1024, 128),
+                        StorageBackend.FILE, policy);
+                String[] names = new String[FILES];
+                byte[] content = new byte[4096];
+                for (int i = 0; i < FILES; i++) {
+                    names[i] = "f" + i;
+                    fs.createFile(names[i]);
+                    fs.writeFile(names[i], content);
+                }
+                for (int threads : clients) {
+                    double global = run(fs, names, content, threads, seconds, new ReentrantReadWriteLock(true));
+                    double striped = run(fs, names, content, threads, seconds, null);
+                    System.out.printf("%-8s %2d clients  global %,10.0f ops/s  striped %,10.0f ops/s  %5.2fx%n",
+                            policy.name().toLowerCase(), threads, global, striped, striped / global);
+                }
+                fs.lockWrite();
+                try {
+                    fs.close();
+                } finally {
+                    fs.unlockWrite();
+                }
+            } finally {
+                Files.deleteIfExists(image);
+            }
+        }
+    }
+
+    private static double run(FileSystemManager fs, String[] names, byte[] content, int threads, double seconds,
+                              ReentrantReadWriteLock global) throws Exception {
+        AtomicBoolean done = new AtomicBoolean();
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] clients = new Thread[threads];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads; t++) {
+            clients[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    long count = 0;
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (!done.get()) {
+                        String name = names[random.nextInt(names.length)];
+                        boolean write = random.nextInt(5) == 0;
+                        if (global != null) {
+                            (write ? global.writeLock() : global.readLock()).lock();
+                        } else if (write) {
+                            fs.lockWrite(name);
+                        } else {
+                            fs.lockRead(name);
+                        }
+                        try {
+                            if (write) {
+                                fs.writeFile(name, content);
+                            } else {
+                                fs.readFile(name);
+                            }
+                        } finally {
+                            if (global != null) {
+                                (write ? global.writeLock() : global.readLock()).unlock();
+                            } else if (write) {
+                                fs.unlockWrite(name);
+                            } else {
+                                fs.unlockRead(name);
+                            }
+                        }
+                        count++;
+                    }
+                    ops.add(count);
+                } catch (Throwable e) {
+                    failure[0] = e;
+                    done.set(true);
+                }
+            });
+            clients[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep((long) (seconds * 1000));
+        done.set(true);
+        for (Thread client : clients) client.join();
+        if (failure[0] != null) throw new RuntimeException(failure[0]);
+        return ops.sum() / ((System.nanoTime() - begin) / 1e9);
+    }
+}
@@ -0,0 +1,87 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.server.CommandProcessor;
+import ca.concordia.server.ServerLog;
+import ca.concordia.server.ServerStats;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs LIST through a CommandProcessor on many threads at once, logging every command the way
+ * ClientHandler used to (a println straight to an autoflushing stream) and through ServerLog at
+ * debug level, sampled 1 in 100, and disabled. Output goes to /dev/null so only the logging
+ * cost is measured, not the terminal.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.LoggingBenchmark 16 200000
+ */
+public class LoggingBenchmark {
+
+    interface Logger {
+        void log(String line);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        Path image = Files.createTempFile("logbench", ".dat");
+        Files.delete(image);
+        FileSystemManager fs = new FileSystemManager(image.toString(), 10 * 128);
+        PrintStream sink = new PrintStream(new FileOutputStream("/dev/null"), true);
+        try {
+            for (int round = 0; round < 2; round++) { // first round warms up
+                ServerLog.configure(ServerLog.Level.OFF, 1, sink);
+                run(round, "println", threads, perThread, fs, line -> sink.println("Received from client: " + line));
+                ServerLog.configure(ServerLog.Level.DEBUG, 1, sink);
+                run(round, "async all", threads, perThread, fs, ServerLog::command);
+                ServerLog.configure(ServerLog.Level.DEBUG, 100, sink);
+                run(round, "async 1/100", threads, perThread, fs, ServerLog::command);
+                ServerLog.configure(ServerLog.Level.INFO, 1, sink);
+                run(round, "disabled", threads, perThread, fs, ServerLog::command);
+            }
+        } finally {
+            Files.deleteIfExists(image);
+        }
+    }
+
+    private static void run(int round, String name, int threads, int perThread,
+                            FileSystemManager fs, Logger logger) throws Exception {
+        ServerLog.flush();
+        long droppedBefore = ServerLog.getDropped();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            CommandProcessor processor = new CommandProcessor(fs, new ServerStats());
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    String line = "LIST";
+                    logger.log(line);
+                    processor.execute(line);
+                }
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (round == 0) return;
+        long commands = (long) threads * perThread;
+        System.out.printf("%-12s %2d threads  %,12.0f commands/s  %,6.0f ns/command  %,d log lines dropped%n",
+                name, threads, commands / (elapsed / 1e9), (double) elapsed / commands,
+                ServerLog.getDropped() - droppedBefore);
+    }
+}
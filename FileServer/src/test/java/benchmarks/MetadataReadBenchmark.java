@@ -0,0 +1,133 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.StorageBackend;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metadata queries (getFileSize, the lookup behind streamed READ, and LIST of a 64-file
+ * directory) from 1 to 16 threads while one writer keeps rewriting other files, each WRITE
+ * holding the metadata lock for its reserve and publish steps. Reports query throughput and
+ * the 99th and 99.9th percentile latency of single queries.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.MetadataReadBenchmark [seconds]
+ */
+public class MetadataReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        Path image = Files.createTempFile("metadata", ".dat");
+        Files.delete(image);
+        try {
+            FileSystemManager fs = new FileSystemManager(image.toString(), new Geometry(64, 16 * 1024, 128),
+                    StorageBackend.MAPPED, ForcePolicy.ON_CLOSE);
+            String[] names = new String[64];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = "f" + i;
+                fs.createFile(names[i]);
+                fs.writeFile(names[i], new byte[1024]);
+            }
+            for (String query : new String[]{"size", "list"}) {
+                for (int threads : new int[]{1, 4, 16}) {
+                    run(fs, names, query, threads, seconds); // warm-up
+                    run(fs, names, query, threads, seconds);
+                }
+            }
+            fs.lockWrite();
+            try {
+                fs.close();
+            } finally {
+                fs.unlockWrite();
+            }
+        } finally {
+            Files.deleteIfExists(image);
+        }
+    }
+
+    private static void run(FileSystemManager fs, String[] names, String query, int threads, double seconds) throws Exception {
+        AtomicBoolean done = new AtomicBoolean();
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long[][] samples = new long[threads][];
+        int[] sampled = new int[threads];
+        Throwable[] failure = new Throwable[1];
+
+        Thread writer = new Thread(() -> {
+            byte[] content = new byte[4096];
+            try {
+                start.await();
+                for (int i = 0; !done.get(); i++) {
+                    String name = names[i % 8]; // readers query all 64
+                    fs.lockWrite(name);
+                    try {
+                        fs.writeFile(name, content);
+                    } finally {
+                        fs.unlockWrite(name);
+                    }
+                }
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        });
+        writer.start();
+
+        Thread[] readers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            samples[t] = new long[1 << 20];
+            readers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    long count = 0;
+                    long sink = 0;
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (!done.get()) {
+                        long begin = System.nanoTime();
+                        if (query.equals("size")) {
+                            sink += fs.getFileSize(names[random.nextInt(names.length)]);
+                        } else {
+                            sink += fs.listFiles().length;
+                        }
+                        long elapsed = System.nanoTime() - begin;
+                        if ((count & 15) == 0 && sampled[id] < samples[id].length) samples[id][sampled[id]++] = elapsed;
+                        count++;
+                    }
+                    ops.add(count + (sink == 42 ? 1 : 0));
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            readers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep((long) (seconds * 1000));
+        done.set(true);
+        for (Thread reader : readers) reader.join();
+        writer.join();
+        if (failure[0] != null) throw new RuntimeException(failure[0]);
+
+        int total = 0;
+        for (int n : sampled) total += n;
+        long[] all = new long[total];
+        for (int t = 0, at = 0; t < threads; t++) {
+            System.arraycopy(samples[t], 0, all, at, sampled[t]);
+            at += sampled[t];
+        }
+        Arrays.sort(all);
+        System.out.printf("%-4s %2d readers + 1 writer  %,12.0f queries/s  p99 %,9.0f ns  p99.9 %,11.0f ns%n",
+                query, threads, ops.sum() / ((System.nanoTime() - begin) / 1e9),
+                (double) all[(int) (total * 0.99)], (double) all[(int) (total * 0.999)]);
+    }
+}
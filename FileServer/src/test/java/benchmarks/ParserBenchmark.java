@@ -0,0 +1,84 @@
+package benchmarks;
+
+import ca.concordia.server.CommandLine;
+import ca.concordia.server.CommandTable;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parse plus dispatch of single text commands. It compares the old
+ * {@code trim().split(" ", 3)} / {@code toUpperCase()} / string-switch path with CommandLine
+ * over a reused byte buffer and a CommandTable lookup. Handlers only return a constant, so the
+ * numbers cover parsing and finding the handler, not filesystem work. Reports heap bytes
+ * allocated per command.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.ParserBenchmark
+ */
+public class ParserBenchmark {
+
+    private static final CommandTable TABLE = new CommandTable()
+            .add("CREATE", (processor, command) -> "create")
+            .add("WRITE", (processor, command) -> "write")
+            .add("READ", (processor, command) -> "read")
+            .add("DELETE", (processor, command) -> "delete")
+            .add("LIST", (processor, command) -> "list")
+            .add("QUIT", (processor, command) -> "quit");
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        String[] lines = {"LIST", "READ notes.txt", "DELETE notes.txt"};
+
+        for (int round = 0; round < 2; round++) { // first round warms up
+            for (String line : lines) {
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                CommandLine command = new CommandLine();
+                int sink = 0;
+
+                long allocBefore = allocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    sink += splitDispatch(line).length();
+                }
+                report(round, "split", line, iterations, allocBefore, start);
+
+                allocBefore = allocatedBytes();
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    command.parse(bytes, bytes.length);
+                    sink += TABLE.lookup(command).handle(null, command).length() + command.argumentCount();
+                }
+                report(round, "table", line, iterations, allocBefore, start);
+                if (sink == 42) System.out.println(); // keep the loops alive
+            }
+        }
+    }
+
+    // The parse and dispatch CommandProcessor did before the table
+    private static String splitDispatch(String line) {
+        String[] parts = line.trim().split(" ", 3);
+        String command = parts[0].toUpperCase();
+        switch (command) {
+            case "CREATE": return "create";
+            case "WRITE": return "write";
+            case "READ": return parts.length < 2 ? "error" : "read";
+            case "DELETE": return parts.length < 2 ? "error" : "delete";
+            case "LIST": return "list";
+            case "QUIT": return "quit";
+            default: return "unknown";
+        }
+    }
+
+    private static void report(int round, String path, String line, int iterations, long allocBefore, long start) {
+        if (round == 0) return;
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocBefore;
+        System.out.printf("%-6s %-18s %6.1f ns/command  %5d B allocated/command%n",
+                path, line, (double) elapsed / iterations, allocated / iterations);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
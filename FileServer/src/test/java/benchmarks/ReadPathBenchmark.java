@@ -0,0 +1,99 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Compares the two text READ paths on the largest file the image can hold: the copying path
+ * (readFile, new String, concatenation, encode, write) against streamRead-style transferTo from
+ * the image to a socket. Reports heap bytes allocated and bytes copied through the heap per READ.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.ReadPathBenchmark
+ */
+public class ReadPathBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+        Path image = Files.createTempFile("readbench", ".dat");
+        Files.delete(image);
+        FileSystemManager fs = new FileSystemManager(image.toString(), 10 * 128);
+        byte[] content = new byte[fileCapacity(fs)];
+        Arrays.fill(content, (byte) 'r');
+        fs.createFile("big");
+        fs.writeFile("big", content);
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+             SocketChannel client = SocketChannel.open(listener.getLocalAddress());
+             SocketChannel server = listener.accept()) {
+            Thread drain = new Thread(() -> {
+                byte[] sink = new byte[64 * 1024];
+                try (InputStream in = client.socket().getInputStream()) {
+                    while (in.read(sink) != -1) { }
+                } catch (Exception ignored) { }
+            }, "drain");
+            drain.setDaemon(true);
+            drain.start();
+            OutputStream out = server.socket().getOutputStream();
+
+            for (int round = 0; round < 2; round++) { // first round warms up
+                long allocBefore = allocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    byte[] data = fs.readFile("big");
+                    String line = "SUCCESS: Read from file 'big': " + new String(data) + "\n";
+                    out.write(line.getBytes());
+                }
+                report(round, "copy", iterations, allocBefore, start, 4L * content.length);
+
+                allocBefore = allocatedBytes();
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    out.write("SUCCESS: Read from file 'big': ".getBytes());
+                    fs.transferFile("big", server);
+                    out.write('\n');
+                }
+                report(round, "transfer", iterations, allocBefore, start, 0);
+            }
+        } finally {
+            Files.deleteIfExists(image);
+        }
+    }
+
+    // Write bigger and bigger files until the image runs out of blocks
+    private static int fileCapacity(FileSystemManager fs) throws Exception {
+        fs.createFile("probe");
+        int size = 0;
+        try {
+            while (true) {
+                fs.writeFile("probe", new byte[size + 128]);
+                size += 128;
+            }
+        } catch (Exception full) {
+            fs.deleteFile("probe");
+            return size;
+        }
+    }
+
+    private static void report(int round, String path, int iterations, long allocBefore, long start, long copiedPerRead) {
+        if (round == 0) return;
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocBefore;
+        System.out.printf("%-9s %,8d READs  %,7d B allocated/READ  %,6d B copied on heap/READ  %.2f us/READ%n",
+                path, iterations, allocated / iterations, copiedPerRead, elapsed / 1e3 / iterations);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
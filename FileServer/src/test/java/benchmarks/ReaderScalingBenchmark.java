@@ -0,0 +1,101 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.StorageBackend;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregate READ throughput as reader threads go from 1 to 32. Every thread reads the files of
+ * one image in a loop under the read lock, the way CommandProcessor does, and every result is
+ * checked, so a backend that lets readers race on a shared file pointer fails loudly instead
+ * of reporting a number.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.ReaderScalingBenchmark [seconds]
+ */
+public class ReaderScalingBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        for (StorageBackend backend : StorageBackend.values()) {
+            Path image = Files.createTempFile("readers", ".dat");
+            Files.delete(image);
+            try {
+                FileSystemManager fs = new FileSystemManager(image.toString(), 10 * 128, backend, ForcePolicy.ON_CLOSE);
+                String[] names = {"a", "b", "c"};
+                byte[][] contents = new byte[names.length][];
+                for (int i = 0; i < names.length; i++) {
+                    contents[i] = new byte[2 * 128 + 40];
+                    Arrays.fill(contents[i], (byte) ('a' + i));
+                    fs.createFile(names[i]);
+                    fs.writeFile(names[i], contents[i]);
+                }
+                run(fs, names, contents, 1, seconds / 2); // warm-up
+                for (int threads : THREADS) {
+                    double rate = run(fs, names, contents, threads, seconds);
+                    System.out.printf("%-7s %2d readers  %,12.0f READs/s%n", backend.name().toLowerCase(), threads, rate);
+                }
+                fs.close();
+            } finally {
+                Files.deleteIfExists(image);
+            }
+        }
+    }
+
+    private static double run(FileSystemManager fs, String[] names, byte[][] contents, int threads, double seconds)
+            throws Exception {
+        AtomicBoolean done = new AtomicBoolean();
+        LongAdder reads = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] readers = new Thread[threads];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            readers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    long count = 0;
+                    for (int i = first; !done.get(); i++) {
+                        int file = i % names.length;
+                        byte[] data;
+                        fs.lockRead(names[file]);
+                        try {
+                            data = fs.readFile(names[file]);
+                        } finally {
+                            fs.unlockRead(names[file]);
+                        }
+                        if (!Arrays.equals(data, contents[file])) {
+                            throw new IllegalStateException("READ of '" + names[file] + "' returned another file's bytes");
+                        }
+                        count++;
+                    }
+                    reads.add(count);
+                } catch (Throwable e) {
+                    failure[0] = e;
+                    done.set(true);
+                }
+            });
+            readers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep((long) (seconds * 1000));
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (failure[0] != null) {
+            throw new IllegalStateException(threads + " readers failed", failure[0]);
+        }
+        return reads.sum() / ((System.nanoTime() - begin) / 1e9);
+    }
+}
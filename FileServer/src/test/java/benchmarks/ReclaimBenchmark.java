@@ -0,0 +1,121 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.StorageBackend;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * READ latency while large files are deleted. Reader threads keep reading random 4KB files;
+ * meanwhile one thread deletes 32 files of 2MB one after the other, and the readers go on for
+ * another 500 ms so wiping done after the DELETEs returned is measured too. Each round writes
+ * the large files again first, without timing anything. "nozero" turns off zeroing freed blocks.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.ReclaimBenchmark [readers] [nozero]
+ */
+public class ReclaimBenchmark {
+
+    private static final int SMALL = 64;
+    private static final int LARGE = 32;
+
+    public static void main(String[] args) throws Exception {
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        boolean zero = !(args.length > 1 && args[1].equals("nozero"));
+        Path image = Files.createTempFile("reclaim", ".dat");
+        Files.delete(image);
+        try {
+            FileSystemManager fs = new FileSystemManager(image.toString(), new Geometry(256, 40_000, 4096),
+                    StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+            fs.setZeroFreedBlocks(zero);
+            byte[] small = new byte[4096];
+            for (int i = 0; i < SMALL; i++) {
+                fs.createFile("s" + i);
+                fs.writeFile("s" + i, small);
+            }
+            byte[] large = new byte[2 << 20];
+            Arrays.fill(large, (byte) 1);
+
+            for (int round = 0; round < 4; round++) { // first round warms up
+                for (int i = 0; i < LARGE; i++) {
+                    fs.createFile("l" + i);
+                    fs.writeFile("l" + i, large);
+                }
+                AtomicBoolean done = new AtomicBoolean();
+                long[][] samples = new long[readers][];
+                int[] counts = new int[readers];
+                Thread[] threads = new Thread[readers];
+                for (int t = 0; t < readers; t++) {
+                    int id = t;
+                    threads[t] = new Thread(() -> {
+                        long[] mine = new long[1 << 16];
+                        int count = 0;
+                        try {
+                            while (!done.get()) {
+                                String name = "s" + ThreadLocalRandom.current().nextInt(SMALL);
+                                long begin = System.nanoTime();
+                                fs.lockRead(name);
+                                try {
+                                    fs.readFile(name);
+                                } finally {
+                                    fs.unlockRead(name);
+                                }
+                                if (count == mine.length) mine = Arrays.copyOf(mine, count * 2);
+                                mine[count++] = System.nanoTime() - begin;
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                        samples[id] = mine;
+                        counts[id] = count;
+                    });
+                    threads[t].start();
+                }
+
+                long deleteNanos = 0;
+                for (int i = 0; i < LARGE; i++) {
+                    long begin = System.nanoTime();
+                    fs.lockWrite("l" + i);
+                    try {
+                        fs.deleteFile("l" + i);
+                    } finally {
+                        fs.unlockWrite("l" + i);
+                    }
+                    deleteNanos += System.nanoTime() - begin;
+                }
+                Thread.sleep(500);
+                done.set(true);
+                for (Thread thread : threads) thread.join();
+
+                int total = 0;
+                for (int count : counts) total += count;
+                long[] all = new long[total];
+                int at = 0;
+                for (int t = 0; t < readers; t++) {
+                    System.arraycopy(samples[t], 0, all, at, counts[t]);
+                    at += counts[t];
+                }
+                Arrays.sort(all);
+                if (round > 0) {
+                    System.out.printf("%s DELETE 2MB %,9.1f us   READ 4KB p50 %,7.1f us  p99 %,9.1f us  p99.9 %,9.1f us  max %,9.1f us%n",
+                            zero ? "zero  " : "nozero", deleteNanos / 1e3 / LARGE, all[total / 2] / 1e3,
+                            all[(int) (total * 0.99)] / 1e3, all[(int) (total * 0.999)] / 1e3, all[total - 1] / 1e3);
+                }
+            }
+            fs.lockWrite();
+            try {
+                fs.close();
+            } finally {
+                fs.unlockWrite();
+            }
+        } finally {
+            Files.deleteIfExists(image);
+        }
+    }
+}
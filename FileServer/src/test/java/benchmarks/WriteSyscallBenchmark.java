@@ -0,0 +1,94 @@
+package benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ForcePolicy;
+import ca.concordia.filesystem.Geometry;
+import ca.concordia.filesystem.StorageBackend;
+import ca.concordia.filesystem.UploadSession;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Write syscalls and throughput for 4KB, 64KB and 1MB files on 128-byte blocks. Each file is
+ * ten bytes short of its size, so its last block needs padding. Two paths are measured: WRITE
+ * rewrites a file in place, and an upload sends the same content in 4KB chunks and then commits.
+ * "syscalls/op" counts the process's write, pwrite and writev calls (syscw in /proc/self/io),
+ * metadata writes included, so it needs Linux. Freed blocks are not zeroed, so the scrubber's
+ * writes are not counted.
+ *
+ * Not a JUnit test; run with:
+ *   mvn test-compile && java -cp target/classes:target/test-classes benchmarks.WriteSyscallBenchmark [seconds]
+ */
+public class WriteSyscallBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        for (int size : new int[]{4 << 10, 64 << 10, 1 << 20}) {
+            run(size - 10, false, seconds);
+            run(size - 10, true, seconds);
+        }
+    }
+
+    private static void run(int size, boolean upload, double seconds) throws Exception {
+        Path image = Files.createTempFile("writes", ".dat");
+        Files.delete(image);
+        try {
+            FileSystemManager fs = new FileSystemManager(image.toString(), new Geometry(4, 3 * (size / 128) + 1024, 128),
+                    StorageBackend.FILE, ForcePolicy.ON_CLOSE);
+            fs.setZeroFreedBlocks(false);
+            byte[] content = new byte[size];
+            for (int i = 0; i < size; i++) content[i] = (byte) i;
+            fs.createFile("f");
+
+            for (int i = 0; i < 200; i++) write(fs, content, upload); //warm up
+            long calls = syscalls();
+            long ops = 0;
+            long begin = System.nanoTime();
+            long end = begin + (long) (seconds * 1e9);
+            while (System.nanoTime() < end) {
+                write(fs, content, upload);
+                ops++;
+            }
+            double elapsed = (System.nanoTime() - begin) / 1e9;
+            calls = syscalls() - calls;
+            System.out.printf("%-6s %,9d bytes  %,10.1f syscalls/op  %,9.0f ops/s  %,8.1f MB/s%n",
+                    upload ? "upload" : "write", size, (double) calls / ops, ops / elapsed, ops * (double) size / elapsed / (1 << 20));
+
+            fs.lockWrite();
+            try {
+                fs.close();
+            } finally {
+                fs.unlockWrite();
+            }
+        } finally {
+            Files.deleteIfExists(image);
+        }
+    }
+
+    private static void write(FileSystemManager fs, byte[] content, boolean upload) throws Exception {
+        fs.lockWrite("f");
+        try {
+            if (upload) {
+                UploadSession session = fs.beginUpload("f");
+                for (int offset = 0; offset < content.length; offset += 4096) {
+                    fs.appendUpload(session, content, offset, Math.min(4096, content.length - offset));
+                }
+                fs.commitUpload(session);
+            } else {
+                fs.writeFile("f", content);
+            }
+        } finally {
+            fs.unlockWrite("f");
+        }
+    }
+
+    private static long syscalls() throws Exception {
+        List<String> io = Files.readAllLines(Path.of("/proc/self/io"));
+        for (String line : io) {
+            if (line.startsWith("syscw:")) return Long.parseLong(line.substring(6).trim());
+        }
+        throw new IllegalStateException("no syscw in /proc/self/io");
+    }
+}
@@ -0,0 +1,57 @@
+package helpers;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+// Test client for the framed protocol: does the BINARY handshake, then one frame per request
+public class BinaryClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public BinaryClient(int port) throws IOException {
+        socket = new Socket("localhost", port);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.write("BINARY\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        String handshake = readLine();
+        if (!handshake.startsWith("SUCCESS")) {
+            throw new IOException("Handshake refused: " + handshake);
+        }
+    }
+
+    // Returns the status byte followed by the payload
+    public byte[] request(int opcode, String name, byte[] payload) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        out.writeByte(opcode);
+        out.writeShort(nameBytes.length);
+        out.writeInt(payload.length);
+        out.write(nameBytes);
+        out.write(payload);
+        out.flush();
+
+        byte status = in.readByte();
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        byte[] result = new byte[body.length + 1];
+        result[0] = status;
+        System.arraycopy(body, 0, result, 1, body.length);
+        return result;
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.append((char) b);
+        }
+        return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
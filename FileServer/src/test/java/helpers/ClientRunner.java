@@ -2,15 +2,41 @@ package helpers;
 
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ClientRunner {
     public static String send(String command) throws IOException {
-        try (Socket s = new Socket("localhost", 12345);
+        return send(12345, command);
+    }
+
+    public static String send(int port, String command) throws IOException {
+        try (Socket s = new Socket("localhost", port);
              PrintWriter out = new PrintWriter(s.getOutputStream(), true);
              BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
             out.println(command);
             return in.readLine();
         }
     }
+
+    // Writes every command before reading any reply, like a pipelining client would
+    public static List<String> sendPipelined(int port, List<String> commands) throws IOException {
+        try (Socket s = new Socket("localhost", port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+            StringBuilder batch = new StringBuilder();
+            for (String command : commands) {
+                batch.append(command).append('\n');
+            }
+            OutputStream out = s.getOutputStream();
+            out.write(batch.toString().getBytes());
+            out.flush();
+
+            List<String> responses = new ArrayList<>();
+            for (int i = 0; i < commands.size(); i++) {
+                responses.add(in.readLine());
+            }
+            return responses;
+        }
+    }
 }
 
@@ -34,6 +34,12 @@ public class ServerRunner {
     public void stop() {
         if (process != null && process.isAlive()) {
             process.destroy();
+            try {
+                // Make sure the port is released before the next test class starts a server
+                process.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 }